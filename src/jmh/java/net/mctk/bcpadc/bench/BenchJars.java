@@ -0,0 +1,95 @@
+package net.mctk.bcpadc.bench;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.opengion.fukurou.util.Closer;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ベンチマーク用のプラグインjarを生成します。
+ * クラスファイルは定数プールに詰め物をしただけの、ロード可能な最小のクラスです。
+ */
+public final class BenchJars {
+
+    public static final String PACKAGE = "bench/gen/";
+
+    private BenchJars() {
+    }
+
+    /**
+     * @param classCount クラス数
+     * @param classSize  1クラスあたりのおおよそのバイト数
+     * @return 生成したクラスファイル(名前順)
+     */
+    public static List<byte[]> generateClasses(int classCount, int classSize) throws IOException {
+        List<byte[]> classes = new ArrayList<byte[]>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            classes.add(generateClass(className(i), classSize));
+        }
+        return classes;
+    }
+
+    public static String className(int index) {
+        return PACKAGE + "Gen" + index;
+    }
+
+    /**
+     * plugin.yml、MANIFEST.MF、生成したクラスを入れたjarを書き出します。
+     */
+    public static File writePluginJar(File file, int classCount, int classSize) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) throw new IOException("ディレクトリを作成できません。dir=" + dir);
+        ZipArchiveOutputStream zos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            put(zos, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".getBytes("utf-8"));
+            put(zos, "plugin.yml", ("name: Bench\nversion: 1.0\nmain: " + className(0).replace('/', '.') + "\n").getBytes("utf-8"));
+            List<byte[]> classes = generateClasses(classCount, classSize);
+            for (int i = 0; i < classes.size(); i++) {
+                put(zos, className(i) + ".class", classes.get(i));
+            }
+        } finally {
+            Closer.ioClose(zos);
+        }
+        return file;
+    }
+
+    private static void put(ZipArchiveOutputStream zos, String name, byte[] bytes) throws IOException {
+        zos.putArchiveEntry(new ZipArchiveEntry(name));
+        zos.write(bytes);
+        zos.closeArchiveEntry();
+    }
+
+    private static byte[] generateClass(String name, int size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(50);                 // Java 6(StackMapTable不要)
+        out.writeShort(6);                  // constant_pool_count
+        out.writeByte(1);
+        out.writeUTF(name);                 // #1
+        out.writeByte(7);
+        out.writeShort(1);                  // #2 this
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");   // #3
+        out.writeByte(7);
+        out.writeShort(3);                  // #4 super
+        char[] padding = new char[Math.max(0, Math.min(size, 65535) - 64)];
+        Arrays.fill(padding, (char) ('a' + name.length() % 26));
+        out.writeByte(1);
+        out.writeUTF(new String(padding));  // #5 詰め物
+        out.writeShort(0x21);               // ACC_PUBLIC | ACC_SUPER
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0);                  // interfaces
+        out.writeShort(0);                  // fields
+        out.writeShort(0);                  // methods
+        out.writeShort(0);                  // attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
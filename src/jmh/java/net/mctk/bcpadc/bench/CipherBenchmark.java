@@ -0,0 +1,61 @@
+package net.mctk.bcpadc.bench;
+
+import net.mctk.bcpadc.loader.CipherEngine;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.KeyGenerator;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 暗号方式ごとの、クラスファイル1件あたりの暗号化と復号化のスループットを1スレッドで測ります。
+ * 配布先のサーバーと同じJavaで実行して、-cipher に指定する方式を選ぶためのものです(サーバーの起動時間に効くのは復号化です)。
+ * このJavaで使えない方式(Java 8の chacha20 など)は、セットアップで失敗させてその組み合わせだけ飛ばします。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CipherBenchmark {
+
+    private static final int ENTRY_COUNT = 256;
+
+    @Param({"aes-ecb", "aes-ctr", "aes-gcm", "chacha20"})
+    public String cipher;
+    @Param({"1024", "8192"})
+    public int entrySize;
+
+    private CipherEngine engine;
+    private byte[][] entries;
+    private byte[][] encrypted;
+    private int next;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        CipherEngine.Mode mode = CipherEngine.Mode.parse(cipher);
+        if (!mode.isSupported()) throw new IllegalStateException(mode + " はこのJavaでは使えません。(" + mode.getTransformation() + ")");
+        engine = new CipherEngine(mode, KeyGenerator.getInstance("AES").generateKey());
+        entries = new byte[ENTRY_COUNT][entrySize];
+        encrypted = new byte[ENTRY_COUNT][];
+        Random random = new Random(0);
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            random.nextBytes(entries[i]);
+            encrypted[i] = engine.encrypt(entries[i]);
+        }
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws GeneralSecurityException {
+        next = (next + 1) % ENTRY_COUNT;
+        return engine.encrypt(entries[next]);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws GeneralSecurityException {
+        next = (next + 1) % ENTRY_COUNT;
+        return engine.decrypt(encrypted[next]);
+    }
+}
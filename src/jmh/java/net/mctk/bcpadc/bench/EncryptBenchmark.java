@@ -0,0 +1,91 @@
+package net.mctk.bcpadc.bench;
+
+import net.mctk.bcpadc.ClassEncryptor;
+import net.mctk.bcpadc.JobMetrics;
+import net.mctk.bcpadc.JobOptions;
+import net.mctk.bcpadc.ObfuscationJob;
+import net.mctk.bcpadc.RoundTripVerifier;
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.args4j.CmdLineParser;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.KeyGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 難読化のクラス暗号化と、jar全体のジョブの処理時間を測ります。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EncryptBenchmark {
+
+    @Param({"100", "1000"})
+    public int classCount;
+    @Param({"1024", "16384"})
+    public int classSize;
+    @Param({"1", "4"})
+    public int threads;
+
+    private List<byte[]> classes;
+    private ExecutorService executor;
+    private ClassEncryptor encryptor;
+    private File workDir;
+    private File inFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        classes = BenchJars.generateClasses(classCount, classSize);
+        executor = ClassEncryptor.newExecutor(threads);
+        Key key = KeyGenerator.getInstance("AES").generateKey();
+        workDir = new File(FileUtils.getTempDirectory(), "cbpadc-bench-" + System.nanoTime());
+        inFile = BenchJars.writePluginJar(new File(workDir, "in.jar"), classCount, classSize);
+        JobMetrics metrics = new JobMetrics(inFile, new File(workDir, "out.jar"));
+        encryptor = new ClassEncryptor(key, executor, RoundTripVerifier.parse("off"), metrics.stage("encrypt"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.shutdown();
+        FileUtils.deleteDirectory(workDir);
+    }
+
+    @Benchmark
+    public int encryptClasses() throws Exception {
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(classes.size());
+        for (int i = 0; i < classes.size(); i++) {
+            futures.add(encryptor.submit(BenchJars.className(i), classes.get(i)));
+        }
+        int total = 0;
+        for (Future<byte[]> future : futures) {
+            total += ClassEncryptor.get(future).length;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public boolean streamJob() throws Exception {
+        return runJob("-s", "-verify", "off");
+    }
+
+    @Benchmark
+    public boolean tmpDirJob() throws Exception {
+        return runJob("-verify", "off");
+    }
+
+    private boolean runJob(String... args) throws Exception {
+        JobOptions options = new JobOptions();
+        new CmdLineParser(options).parseArgument(args);
+        return new ObfuscationJob(inFile, new File(workDir, "out.jar"), options, executor).run();
+    }
+}
@@ -0,0 +1,74 @@
+package net.mctk.bcpadc.bench;
+
+import net.mctk.bcpadc.loader.CipherEngine;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.KeyGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PluginLoaderがサーバー起動時に行う、復号してクラスを定義する処理の時間を測ります。
+ * Bukkitが無くても動くように、PluginLoaderと同じ手順({@link CipherEngine} で復号し、定義する)を再現しています。
+ * chacha20 はJava 11以降でしか測れません。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LoaderBenchmark {
+
+    @Param({"100", "1000"})
+    public int classCount;
+    @Param({"1024", "16384"})
+    public int classSize;
+    @Param({"aes-ecb", "aes-ctr", "aes-gcm", "chacha20"})
+    public String cipherMode;
+
+    private CipherEngine engine;
+    private List<byte[]> encrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        engine = new CipherEngine(CipherEngine.Mode.parse(cipherMode), KeyGenerator.getInstance("AES").generateKey());
+        encrypted = new ArrayList<byte[]>(classCount);
+        for (byte[] bytes : BenchJars.generateClasses(classCount, classSize)) {
+            encrypted.add(engine.encrypt(bytes));
+        }
+    }
+
+    @Benchmark
+    public int decryptAndDefine() throws Exception {
+        DefiningClassLoader loader = new DefiningClassLoader();
+        for (int i = 0; i < encrypted.size(); i++) {
+            byte[] bytes = engine.decrypt(encrypted.get(i));
+            loader.define(BenchJars.className(i).replace('/', '.'), bytes);
+        }
+        return loader.count;
+    }
+
+    @Benchmark
+    public int decryptOnly() throws Exception {
+        int total = 0;
+        for (byte[] bytes : encrypted) {
+            total += engine.decrypt(bytes).length;
+        }
+        return total;
+    }
+
+    private static class DefiningClassLoader extends ClassLoader {
+        int count;
+
+        DefiningClassLoader() {
+            super(LoaderBenchmark.class.getClassLoader());
+        }
+
+        void define(String name, byte[] bytes) {
+            defineClass(name, bytes, 0, bytes.length);
+            count++;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package net.mctk.bcpadc.bench;
+
+import net.mctk.bcpadc.ZipUtil;
+import org.apache.commons.io.FileUtils;
+import org.opengion.fukurou.util.ZipArchive;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * jarの展開(ZipUtil / ZipArchive)と再圧縮(ZipArchive、シリアルと並列)の処理時間を測ります。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ZipBenchmark {
+
+    @Param({"100", "1000"})
+    public int classCount;
+    @Param({"1024", "16384"})
+    public int classSize;
+
+    private File workDir;
+    private File jar;
+    private File extracted;
+
+    @Setup
+    public void setUp() throws IOException {
+        workDir = new File(FileUtils.getTempDirectory(), "cbpadc-bench-" + System.nanoTime());
+        jar = BenchJars.writePluginJar(new File(workDir, "in.jar"), classCount, classSize);
+        extracted = new File(workDir, "extracted");
+        ZipUtil.unZip(jar, extracted, "utf-8");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(workDir);
+    }
+
+    @Benchmark
+    public int unZip() throws IOException {
+        File dir = new File(workDir, "unzip");
+        try {
+            return ZipUtil.unZip(jar, dir, "utf-8").size();
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Benchmark
+    public int unZipParallel() throws IOException {
+        File dir = new File(workDir, "unzip");
+        try {
+            return ZipUtil.unZip(jar, dir, "utf-8", Runtime.getRuntime().availableProcessors()).size();
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Benchmark
+    public int unCompress() throws IOException {
+        File dir = new File(workDir, "uncompress");
+        try {
+            return ZipArchive.unCompress(dir, jar).size();
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Benchmark
+    public int compress() {
+        return ZipArchive.compress(extracted, new File(workDir, "out.jar")).size();
+    }
+
+    @Benchmark
+    public int compressParallel() {
+        return ZipArchive.compress(extracted, new File(workDir, "out.jar"), Runtime.getRuntime().availableProcessors()).size();
+    }
+}
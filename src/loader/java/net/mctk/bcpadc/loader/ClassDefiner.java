@@ -0,0 +1,165 @@
+package net.mctk.bcpadc.loader;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 復号化したクラスファイルをPluginClassLoaderに定義します。
+ * 定義の手段は最初に1回だけ解決して MethodHandle に保持するので、クラスごとのリフレクションはありません。
+ * <p>
+ * Java 9以降では MethodHandles.Lookup.defineClass で定義します。このLookupは同じパッケージのクラスからしか作れないので、
+ * 難読化ツールが平文で置いた package-info か、既に定義したクラスを足がかりにします。
+ * どちらも無いパッケージと、Java 8以前では ClassLoader.defineClass を使います。
+ * <p>
+ * 共有ランタイム({@link DecryptRuntime})では、このクラスはランタイムのローダーにあり、定義先は各プラグインのローダーです。
+ */
+final class ClassDefiner {
+
+    private final ClassLoader loader;
+    private final ProtectionDomain protectionDomain;
+    /**
+     * Lookup.defineClass(byte[]) (Java 9以降、無ければnull)
+     */
+    private final MethodHandle lookupDefineClass;
+    /**
+     * MethodHandles.privateLookupIn(Class, Lookup) (Java 9以降、無ければnull)
+     */
+    private final MethodHandle privateLookupIn;
+    /**
+     * パッケージ名と、そのパッケージのクラスを定義できるLookup
+     */
+    private final Map<String, MethodHandles.Lookup> lookups = new ConcurrentHashMap<>();
+    /**
+     * package-info が無かったパッケージ名(何度も探さない)
+     */
+    private final Set<String> noPackageInfo = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * ClassLoader.defineClass(String, byte[], int, int, ProtectionDomain) をloaderに束縛したもの(必要になったときに解決)
+     */
+    private MethodHandle loaderDefineClass;
+    private boolean loaderDefineClassResolved;
+
+    /**
+     * @param anchor 定義先のPluginClassLoaderで読み込まれたクラス(PluginLoader)。
+     *               定義先のローダーと保護ドメインはこのクラスのものを使い、このクラスのパッケージはLookupで定義します。
+     */
+    ClassDefiner(Class<?> anchor) {
+        this.loader = anchor.getClassLoader();
+        this.protectionDomain = anchor.getProtectionDomain();
+        MethodHandle defineClass = null;
+        MethodHandle privateLookup = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            defineClass = lookup.findVirtual(MethodHandles.Lookup.class, "defineClass",
+                    MethodType.methodType(Class.class, byte[].class));
+            privateLookup = lookup.findStatic(MethodHandles.class, "privateLookupIn",
+                    MethodType.methodType(MethodHandles.Lookup.class, Class.class, MethodHandles.Lookup.class));
+        } catch (NoSuchMethodException e) {
+            // Java 8以前
+            defineClass = null;
+            privateLookup = null;
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            defineClass = null;
+            privateLookup = null;
+        }
+        this.lookupDefineClass = defineClass;
+        this.privateLookupIn = privateLookup;
+        // anchorと同じパッケージ(PluginLoaderの移動先)は、anchorから作ったLookupで定義できる。
+        // 共有ランタイムではこのクラスとanchorのローダーが違うが、名前の無いモジュール同士なので作れる
+        if (privateLookup != null) register(getPackageName(anchor.getName()), anchor);
+    }
+
+    /**
+     * @param className クラス名(com.example.Foo)
+     * @param bytes     クラスファイル
+     * @return 定義したクラス
+     * @throws LinkageError 定義できなかった場合(スーパークラスが未定義の場合はNoClassDefFoundError)
+     */
+    Class<?> define(String className, byte[] bytes) throws LinkageError {
+        String packageName = getPackageName(className);
+        MethodHandles.Lookup lookup = lookups.get(packageName);
+        if (lookup == null && lookupDefineClass != null) lookup = findLookup(packageName);
+        Class<?> defined;
+        try {
+            if (lookup != null) {
+                defined = (Class<?>) lookupDefineClass.invokeExact(lookup, bytes);
+            } else {
+                MethodHandle defineClass = getLoaderDefineClass();
+                if (defineClass == null) {
+                    throw new NoClassDefFoundError(className + "を定義できません。パッケージ" + packageName
+                            + "にクラスが無く、ClassLoader.defineClassも使えません(--add-opens java.base/java.lang=ALL-UNNAMED が必要です)。");
+                }
+                defined = (Class<?>) defineClass.invokeExact(className, bytes, 0, bytes.length, protectionDomain);
+            }
+        } catch (LinkageError | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(className + "を定義できません。", e);
+        }
+        if (lookup == null && lookupDefineClass != null) register(packageName, defined);
+        return defined;
+    }
+
+    /**
+     * パッケージの package-info を読み込み、そこからLookupを作ります。
+     *
+     * @return 作れない場合はnull
+     */
+    private MethodHandles.Lookup findLookup(String packageName) {
+        if (noPackageInfo.contains(packageName)) return null;
+        Class<?> packageInfo = null;
+        try {
+            packageInfo = Class.forName(packageName.isEmpty() ? "package-info" : packageName + ".package-info", false, loader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            // 古い難読化ツールで作ったjarなど
+        }
+        if (packageInfo == null || packageInfo.getClassLoader() != loader) {
+            noPackageInfo.add(packageName);
+            return null;
+        }
+        register(packageName, packageInfo);
+        return lookups.get(packageName);
+    }
+
+    /**
+     * 以降、このパッケージのクラスはLookupで定義します。
+     */
+    private void register(String packageName, Class<?> defined) {
+        try {
+            lookups.put(packageName, (MethodHandles.Lookup) privateLookupIn.invokeExact(defined, MethodHandles.lookup()));
+        } catch (Throwable e) {
+            // Lookupを作れないパッケージは ClassLoader.defineClass のまま
+        }
+    }
+
+    private synchronized MethodHandle getLoaderDefineClass() {
+        if (!loaderDefineClassResolved) {
+            loaderDefineClassResolved = true;
+            try {
+                Method method = ClassLoader.class.getDeclaredMethod("defineClass",
+                        String.class, byte[].class, int.class, int.class, ProtectionDomain.class);
+                method.setAccessible(true);
+                loaderDefineClass = MethodHandles.lookup().unreflect(method).bindTo(loader);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                e.printStackTrace();
+            } catch (RuntimeException e) {
+                // Java 16以降でjava.langが開かれていない(InaccessibleObjectException)
+                LoaderLog.warn("ClassLoader.defineClassを使えません。" + e);
+            }
+        }
+        return loaderDefineClass;
+    }
+
+    private static String getPackageName(String className) {
+        int index = className.lastIndexOf('.');
+        return index < 0 ? "" : className.substring(0, index);
+    }
+}
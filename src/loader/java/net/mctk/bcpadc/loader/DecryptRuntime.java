@@ -0,0 +1,149 @@
+package net.mctk.bcpadc.loader;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 難読化したプラグインをまとめて復号化する、サーバーに1つだけ置く共有ランタイムです。
+ * 各プラグインには {@link PluginStub} だけを埋め込み、復号化はこのプラグインが行います。
+ * <p>
+ * ワーカー、CipherEngine(方式と鍵ごと)、統計はすべてのプラグインで共有します。
+ * load: STARTUP で先に有効化され、その時点でこのランタイムに依存するプラグインすべての復号化を投入しておくので、
+ * 各プラグインの有効化ではクラスの定義だけを行います。統計は /cbpadc で表示します。
+ */
+public class DecryptRuntime extends JavaPlugin {
+
+    private final Map<String, CipherEngine> engines = new HashMap<>();
+    private final Map<String, EncryptedPlugin> plugins = new LinkedHashMap<>();
+    private ExecutorService pool;
+    private int threads;
+
+    @Override
+    public void onEnable() {
+        LoaderLog.setLogger(getLogger());
+        threads = EncryptedPlugin.decryptThreads();
+        pool = EncryptedPlugin.newDecryptPool(threads);
+        // 全プラグインの有効化が終わったらワーカーは要らないので、暇になったら止める
+        ((ThreadPoolExecutor) pool).setKeepAliveTime(30, TimeUnit.SECONDS);
+        ((ThreadPoolExecutor) pool).allowCoreThreadTimeOut(true);
+
+        long start = System.currentTimeMillis();
+        int prepared = 0;
+        for (Plugin plugin : getServer().getPluginManager().getPlugins()) {
+            if (plugin == this || !(plugin instanceof JavaPlugin)) continue;
+            List<String> depend = plugin.getDescription().getDepend();
+            if (depend == null || !depend.contains(SharedRuntime.NAME)) continue;
+            File file = getFile((JavaPlugin) plugin);
+            if (file == null) continue;
+            if (prepare((JavaPlugin) plugin, file, plugin.getClass().getClassLoader()) != null) prepared++;
+        }
+        LoaderLog.info("復号化を投入: " + prepared + "プラグイン (" + threads + "スレッド, " + (System.currentTimeMillis() - start) + "ms)");
+    }
+
+    @Override
+    public void onDisable() {
+        synchronized (plugins) {
+            for (EncryptedPlugin plugin : plugins.values()) {
+                plugin.disable();
+            }
+            plugins.clear();
+        }
+        if (pool != null) pool.shutdownNow();
+        LoaderLog.close();
+    }
+
+    /**
+     * スタブのプラグインを復号化して起動します。サーバーの起動中に投入済みなら、その結果を使います。
+     *
+     * @param stub        スタブ(plugin.ymlのmain)
+     * @param file        スタブのjar
+     * @param classLoader スタブを読み込んだPluginClassLoader
+     */
+    public void enable(JavaPlugin stub, File file, ClassLoader classLoader) {
+        EncryptedPlugin plugin = prepare(stub, file, classLoader);
+        if (plugin != null) plugin.enable(pool, threads);
+    }
+
+    public void disable(JavaPlugin stub) {
+        EncryptedPlugin plugin;
+        synchronized (plugins) {
+            plugin = plugins.remove(stub.getName());
+        }
+        if (plugin != null) plugin.disable();
+    }
+
+    /**
+     * @return スタブが起動した元のプラグイン(無ければnull)
+     */
+    public JavaPlugin getPlugin(JavaPlugin stub) {
+        EncryptedPlugin plugin;
+        synchronized (plugins) {
+            plugin = plugins.get(stub.getName());
+        }
+        return plugin == null ? null : plugin.getPlugin();
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        List<String> lines = new ArrayList<>();
+        synchronized (plugins) {
+            for (EncryptedPlugin plugin : plugins.values()) {
+                lines.add(plugin.getSummary());
+            }
+        }
+        synchronized (engines) {
+            sender.sendMessage(SharedRuntime.NAME + ": " + lines.size() + "プラグイン, " + threads + "スレッド, CipherEngine " + engines.size() + "個");
+        }
+        for (String line : lines) {
+            sender.sendMessage("  " + line);
+        }
+        return true;
+    }
+
+    /**
+     * @return 準備済みのプラグイン(復号化できないjarの場合はnull)
+     */
+    private EncryptedPlugin prepare(JavaPlugin stub, File file, ClassLoader classLoader) {
+        EncryptedPlugin plugin;
+        synchronized (plugins) {
+            plugin = plugins.get(stub.getName());
+            if (plugin == null) {
+                plugin = new EncryptedPlugin(stub, file, classLoader, engines);
+                plugins.put(stub.getName(), plugin);
+            }
+        }
+        if (plugin.prepare(pool)) return plugin;
+        synchronized (plugins) {
+            plugins.remove(stub.getName());
+        }
+        return null;
+    }
+
+    /**
+     * JavaPlugin.getFile() は protected なので、有効化前のプラグインのjarはリフレクションで取得します。
+     */
+    private static File getFile(JavaPlugin plugin) {
+        try {
+            Method getFile = JavaPlugin.class.getDeclaredMethod("getFile");
+            getFile.setAccessible(true);
+            return (File) getFile.invoke(plugin);
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
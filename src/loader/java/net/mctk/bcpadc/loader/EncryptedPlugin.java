@@ -0,0 +1,626 @@
+package net.mctk.bcpadc.loader;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.SimplePluginManager;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+
+/**
+ * 暗号化したプラグイン1つ分の復号化と起動です。
+ * jarに埋め込むPluginLoaderと、共有ランタイム({@link DecryptRuntime})の両方から使います。
+ * <p>
+ * {@link #prepare(ExecutorService)} でjarを読んで復号化をワーカーに投入し、
+ * {@link #enable(ExecutorService, int)} で定義して元のメインクラスを起動します。
+ * 共有ランタイムはサーバーの起動中に prepare だけを先に済ませておくので、
+ * プラグインが有効化されるころには復号化が終わっています。
+ */
+class EncryptedPlugin {
+
+    private final JavaPlugin host;
+    private final File file;
+    private final ClassLoader classLoader;
+    /**
+     * 共有ランタイムのCipherEngineのキャッシュ(方式と鍵ごと)。埋め込みのPluginLoaderではnull
+     */
+    private final Map<String, CipherEngine> engines;
+    private final String logPrefix;
+
+    private Key key;
+    private CipherEngine engine;
+    private byte[] dictionary;
+    private ClassPack pack;
+    private ClassDefiner definer;
+    private EncryptedResources resources;
+    private File packFile;
+    private Map<String, byte[]> classes;
+    private JavaPlugin javaPlugin;
+    private Class<?> mainClass;
+    private List<String> stub = new ArrayList<>();
+    private boolean lazy;
+    private List<String> order;
+    private Map<String, Future<byte[]>> decrypted;
+    private String mainClassName;
+    private boolean prepared;
+
+    private int count;
+    private int passes;
+    private long enableMillis;
+    private final AtomicLong decryptNanos = new AtomicLong();
+
+    /**
+     * @param host        plugin.ymlのmainとしてBukkitが生成したプラグイン(PluginLoader)
+     * @param file        暗号化したプラグインのjar
+     * @param classLoader hostを読み込んだPluginClassLoader(復号化したクラスの定義先)
+     * @param engines     CipherEngineを共有する場合のキャッシュ(共有しない場合はnull)
+     */
+    EncryptedPlugin(JavaPlugin host, File file, ClassLoader classLoader, Map<String, CipherEngine> engines) {
+        this.host = host;
+        this.file = file;
+        this.classLoader = classLoader;
+        this.engines = engines;
+        // 共有ランタイムでは全プラグインのログがランタイムのLoggerに出るので、プラグイン名を付ける
+        this.logPrefix = engines != null ? "[" + host.getName() + "] " : "";
+    }
+
+    /**
+     * jarを読み込み、遅延復号化でなければ全クラスの復号化をワーカーに投入します(待ちません)。
+     *
+     * @return 復号化できないjarの場合はfalse
+     */
+    boolean prepare(ExecutorService pool) {
+        if (prepared) return true;
+        // 遅延復号化では、PluginClassLoaderを使う任意のスレッドから引かれる
+        classes = new ConcurrentHashMap<>();
+        JarFile jarFile = null;
+        try {
+            jarFile = new JarFile(file);
+            Manifest manifest = jarFile.getManifest();
+            Attributes attributes = manifest != null ? manifest.getMainAttributes() : new Attributes();
+            this.mainClassName = attributes.getValue("Encrypted-MainClass");
+            if (mainClassName == null) {
+                LoaderLog.error(logPrefix + "Encrypted-MainClassがありません。暗号化したjarではありません。file=" + file);
+                return false;
+            }
+            String loaderClasses = attributes.getValue("Loader-Classes");
+            if (loaderClasses == null) {
+                LoaderLog.error(logPrefix + "Loader-Classesがありません。このPluginLoaderより前の難読化ツールで暗号化したjarです。file=" + file);
+                return false;
+            }
+            lazy = "true".equalsIgnoreCase(attributes.getValue("Lazy-Load"));
+            // PluginLoaderのクラス(暗号化されていない)
+            Set<String> plainClasses = new HashSet<>(Arrays.asList(loaderClasses.split(" ")));
+            // 暗号化ポリシーで平文のまま残したクラス(PluginClassLoaderが普通に読み込みます)
+            JarEntry plainJarEntry = jarFile.getJarEntry("META-INF/cbpadc-plain.list");
+            if (plainJarEntry != null) {
+                for (String line : new String(read(jarFile.getInputStream(plainJarEntry)), "UTF-8").split("\n")) {
+                    if (!line.isEmpty()) plainClasses.add(line);
+                }
+            }
+            JarEntry keyJarEntry = jarFile.getJarEntry("Key.class");
+            key = getKey(jarFile.getInputStream(keyJarEntry));
+            // 暗号方式(無ければ従来のaes-ecb)
+            String cipherMode = attributes.getValue("Cipher-Mode");
+            CipherEngine.Mode mode = CipherEngine.Mode.parse(cipherMode != null ? cipherMode : "aes-ecb");
+            if (!mode.isSupported()) {
+                LoaderLog.error(logPrefix + "このJavaでは暗号方式 " + mode + " を使えないため、復号化できません。java.version=" + System.getProperty("java.version"));
+                return false;
+            }
+            if (key != null) engine = getEngine(mode, key);
+            // 暗号化前に圧縮している場合のプリセット辞書
+            JarEntry dictJarEntry = jarFile.getJarEntry("Key.dict");
+            if (dictJarEntry != null) dictionary = read(jarFile.getInputStream(dictJarEntry));
+            // 暗号化したリソース(常にaes-ctrで、読むときに少しずつ復号化する)
+            JarEntry resourcesJarEntry = jarFile.getJarEntry(EncryptedResources.LIST);
+            if (resourcesJarEntry != null && key != null) {
+                Set<String> names = new HashSet<>();
+                for (String line : new String(read(jarFile.getInputStream(resourcesJarEntry)), "UTF-8").split("\n")) {
+                    if (!line.isEmpty()) names.add(line);
+                }
+                resources = new EncryptedResources(new JarFile(file), getEngine(CipherEngine.Mode.AES_CTR, key), names);
+            }
+            // 定義順(遅延復号化では使わない)
+            JarEntry orderJarEntry = jarFile.getJarEntry("META-INF/cbpadc-order.list");
+            if (orderJarEntry != null && !lazy) {
+                order = new ArrayList<>();
+                for (String line : new String(read(jarFile.getInputStream(orderJarEntry)), "UTF-8").split("\n")) {
+                    if (!line.isEmpty()) order.add(line);
+                }
+            }
+            // 暗号化したクラスがパックにまとめてある場合は、1回だけ取り出してメモリマップする
+            JarEntry packJarEntry = jarFile.getJarEntry("Classes.pack");
+            if (packJarEntry != null) {
+                pack = mapPack(jarFile.getInputStream(packJarEntry));
+                // 遅延復号化では、要求されたときにパックから直接引く
+                if (!lazy) {
+                    for (String className : pack.getNames()) {
+                        classes.put(className, pack.get(className));
+                    }
+                }
+            }
+            for (Enumeration<? extends JarEntry> e = jarFile.entries(); e.hasMoreElements(); ) {
+                JarEntry entry = e.nextElement();
+                String className = entry.getName();
+                if (pack != null || entry.isDirectory()) continue;
+                if (!entry.getName().endsWith(".class")) continue;
+                if (entry.getName().equals("Key.class") || plainClasses.contains(entry.getName())) continue;
+
+                InputStream is = jarFile.getInputStream(entry);
+                byte[] encryptedClassBytes = read(is);
+
+                classes.put(className, encryptedClassBytes);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (resources != null) resources.close(classLoader);
+            return false;
+        } finally {
+            // 途中で失敗しても(実行時例外を含め)jarを開いたままにしない
+            closeQuietly(jarFile);
+        }
+
+        count = lazy && pack != null ? pack.size() : classes.size();
+        decrypted = new HashMap<>();
+        if (!lazy) {
+            // 復号化はワーカーで並行して行い、定義だけを有効化するスレッドで順番に行う
+            if (order != null) submitDecrypt(pool, order);
+            submitDecrypt(pool, classes.keySet());
+        }
+        prepared = true;
+        return true;
+    }
+
+    /**
+     * 復号化したクラスを定義し、元のメインクラスを生成して有効化します。
+     * {@link #prepare(ExecutorService)} がまだなら先に行います。
+     *
+     * @param threads ログに出すワーカーの数
+     */
+    void enable(ExecutorService pool, int threads) {
+        long start = System.currentTimeMillis();
+        if (!prepare(pool)) return;
+        resetPluginClassLoader();
+        definer = new ClassDefiner(host.getClass());
+        if (resources != null) resources.register(classLoader);
+
+        if (lazy && installLazyClassMap()) {
+            decrypted = null;
+            enableMillis = System.currentTimeMillis() - start;
+            LoaderLog.info(logPrefix + "遅延復号化: " + count + "件 (" + enableMillis + "ms)");
+            runPlugin();
+            return;
+        }
+        if (lazy) {
+            if (pack != null) {
+                // 差し替えられなかったので、全件をその場で復号化する
+                for (String className : pack.getNames()) {
+                    classes.put(className, pack.get(className));
+                }
+            }
+            submitDecrypt(pool, classes.keySet());
+        }
+        try {
+            if (order != null) {
+                // ビルド時に求めた定義順(スーパークラスが先)で1周だけ定義する
+                passes++;
+                defineClasses(order);
+            }
+            // 定義順が無い場合や、定義順で定義できなかったクラスは、定義できるまで繰り返す
+            while (classes.size() != 0) {
+                int remaining = classes.size();
+                passes++;
+                defineClasses(new ArrayList<>(classes.keySet()));
+                if (classes.size() == remaining) {
+                    // 1周で1件も定義できなければ、何周しても定義できない
+                    LoaderLog.error(logPrefix + "定義できないクラスがあります: " + classes.keySet());
+                    break;
+                }
+            }
+        } finally {
+            decrypted = null;
+        }
+        // 復号化完了
+        enableMillis = System.currentTimeMillis() - start;
+        LoaderLog.info(logPrefix + "復号化: " + count + "件 (" + passes + "周, " + threads + "スレッド, " + enableMillis + "ms)");
+
+        runPlugin();
+    }
+
+    /**
+     * 元のプラグインを無効化し、パックの一時ファイルを消します。
+     */
+    void disable() {
+        if (this.javaPlugin != null) host.getServer().getPluginManager().disablePlugin(this.javaPlugin);
+        if (resources != null) resources.close(classLoader);
+        pack = null;
+        if (packFile != null && !packFile.delete()) packFile.deleteOnExit();
+    }
+
+    /**
+     * @return 元のメインクラスのインスタンス(まだ起動していなければnull)
+     */
+    JavaPlugin getPlugin() {
+        return javaPlugin;
+    }
+
+    /**
+     * @return 共有ランタイムのコマンドで表示する1行の統計
+     */
+    String getSummary() {
+        StringBuilder summary = new StringBuilder(host.getName()).append(": ");
+        if (!prepared) return summary.append("未準備").toString();
+        summary.append(count).append("件, ").append(engine != null ? engine.getMode() : "-");
+        if (lazy) summary.append(", 遅延");
+        if (resources != null) summary.append(", リソース").append(resources.size()).append("件");
+        summary.append(", 復号化 ").append(TimeUnit.NANOSECONDS.toMillis(decryptNanos.get())).append("ms(合計)");
+        if (!lazy) summary.append(", ").append(passes).append("周");
+        summary.append(", 有効化 ").append(enableMillis).append("ms");
+        if (javaPlugin == null) summary.append(", 未起動");
+        return summary.toString();
+    }
+
+    /**
+     * 復号化に使うワーカーの数。システムプロパティ cbpadc.threads で指定でき、
+     * 指定が無ければ定義を行うスレッドの分を除いたプロセッサ数(1～8)です。
+     */
+    static int decryptThreads() {
+        int threads = Math.min(8, Runtime.getRuntime().availableProcessors() - 1);
+        String property = System.getProperty("cbpadc.threads");
+        if (property != null) {
+            try {
+                threads = Integer.parseInt(property.trim());
+            } catch (NumberFormatException e) {
+                LoaderLog.warn("cbpadc.threadsが不正です。value=" + property);
+            }
+        }
+        return Math.max(1, threads);
+    }
+
+    static ExecutorService newDecryptPool(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cbpadc-decrypt-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 共有ランタイムでは、方式と鍵が同じプラグイン同士で同じCipherEngineを使います。
+     */
+    private CipherEngine getEngine(CipherEngine.Mode mode, Key key) {
+        if (engines == null) return new CipherEngine(mode, key);
+        String cacheKey = mode.getName() + ":" + new BigInteger(1, key.getEncoded()).toString(16);
+        synchronized (engines) {
+            CipherEngine cached = engines.get(cacheKey);
+            if (cached == null) {
+                cached = new CipherEngine(mode, key);
+                engines.put(cacheKey, cached);
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * まだ投入していないクラスの復号化を、指定した順にワーカーへ投入します。
+     */
+    private void submitDecrypt(ExecutorService pool, Collection<String> names) {
+        for (final String name : names) {
+            final byte[] encryptedClassBytes = classes.get(name);
+            if (encryptedClassBytes == null || decrypted.containsKey(name)) continue;
+            decrypted.put(name, pool.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    if (LoaderLog.isDebug()) LoaderLog.debug(name + "の復号化中");
+                    return decrypt(encryptedClassBytes);
+                }
+            }));
+        }
+    }
+
+    /**
+     * ワーカーで復号化したクラスファイルを受け取ります。失敗した場合はnullです。
+     */
+    private byte[] getDecrypted(String name) {
+        try {
+            return decrypted.get(name).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (CancellationException e) {
+            // 共有ランタイムが停止した
+        }
+        return null;
+    }
+
+    /**
+     * 指定した順に(復号化済みのものを)定義し、定義できたクラスを classes から取り除きます。
+     * 再試行しても復号化し直すことはありません。
+     */
+    private void defineClasses(List<String> names) {
+        for (String name : names) {
+            if (!classes.containsKey(name)) continue;
+            byte[] classBytes = getDecrypted(name);
+            if (classBytes == null) {
+                LoaderLog.error(logPrefix + name + "を復号化できません。");
+                stub.add(name);
+                continue;
+            }
+            try {
+                loadClass(classBytes, name);
+
+            } catch (LinkageError linkageError) {
+//                linkageError.printStackTrace();
+            }
+        }
+        for (String s : stub) {
+            classes.remove(s);
+        }
+        stub.clear();
+    }
+
+    private void pluginSurikae(JavaPlugin javaPlugin) {  // TODO 名前
+//        Bukkit.getPluginManager();
+        Class<SimplePluginManager> simplePluginManagerClass = SimplePluginManager.class;
+        try {
+            Field lookupNamesField = simplePluginManagerClass.getDeclaredField("lookupNames");
+            lookupNamesField.setAccessible(true);
+            @SuppressWarnings("unchecked")
+            Map<String, Plugin> lookupNames = (Map<String, Plugin>) lookupNamesField.get(Bukkit.getPluginManager());
+            lookupNames.put(host.getName().replace(' ', '_'), javaPlugin);
+        } catch (NoSuchFieldException e) {
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void closeQuietly(JarFile jarFile) {
+        if (jarFile == null) return;
+        try {
+            jarFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private byte[] read(InputStream inputStream) {
+        byte[] buf = new byte[1024];
+        int len;
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        try {
+            while ((len = bufferedInputStream.read(buf)) > 0) {
+                byteArrayOutputStream.write(buf, 0, len);
+            }
+            inputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private ClassPack mapPack(InputStream inputStream) throws IOException {
+        packFile = File.createTempFile("cbpadc", ".pack");
+        packFile.deleteOnExit();
+        try {
+            Files.copy(inputStream, packFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            inputStream.close();
+        }
+        return ClassPack.map(packFile);
+    }
+
+    private Key getKey(InputStream inputStream) {
+        Key retKey = null;
+        try {
+            ObjectInputStream objectInputStream = new ObjectInputStream(inputStream);
+            retKey = (Key) objectInputStream.readObject();
+            objectInputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return retKey;
+    }
+
+    private byte[] decrypt(byte[] bytes) {
+        byte[] inByte = null;
+        long start = System.nanoTime();
+        try {
+            if (engine == null) throw new IllegalArgumentException("Keyがnullです。");
+            // Cipherはスレッドごとに1つだけ生成して使い回す(CipherEngine)
+            inByte = engine.decrypt(bytes);
+            if (dictionary != null) inByte = ClassCompression.inflate(inByte, dictionary);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+        } finally {
+            decryptNanos.addAndGet(System.nanoTime() - start);
+        }
+        return inByte;
+    }
+
+    private void resetPluginClassLoader() {
+        Object loader = classLoader;
+        try {
+            Field pluginField = loader.getClass().getDeclaredField("plugin");
+            Field pluginInitField = loader.getClass().getDeclaredField("pluginInit");
+
+            pluginField.setAccessible(true);
+            pluginInitField.setAccessible(true);
+
+            pluginField.set(loader, null);
+            pluginInitField.set(loader, null);
+        } catch (NoSuchFieldException e) {
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return 定義したクラス(定義できずに諦めた場合はnull)
+     * @throws LinkageError スーパークラスなどがまだ定義されていない場合(次の周で再試行します)。
+     *                      jarに暗号文のエントリがあればClassFormatError、パックしていてエントリが無ければNoClassDefFoundErrorです。
+     */
+    private Class<?> loadClass(byte[] bytes, String name) throws LinkageError {
+        Class<?> loadedClass = null;
+        String className = name.substring(0, name.length() - 6).replace('/', '.');
+        try {
+            loadedClass = definer.define(className, bytes);
+            if (className.equals(mainClassName)) {
+                this.mainClass = loadedClass;
+            }
+        } catch (ClassFormatError | NoClassDefFoundError e) {
+            throw e;
+        } catch (LinkageError e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        stub.add(name);
+        return loadedClass;
+    }
+
+    /**
+     * PluginClassLoaderのクラスのキャッシュ(classes)を {@link LazyClassMap} に差し替えます。
+     *
+     * @return 差し替えられなかった場合(PluginClassLoaderの実装が違う場合)はfalse
+     */
+    private boolean installLazyClassMap() {
+        Object loader = classLoader;
+        try {
+            Field classesField = loader.getClass().getDeclaredField("classes");
+            if (!classesField.getType().isAssignableFrom(LazyClassMap.class)) return false;
+            classesField.setAccessible(true);
+            @SuppressWarnings("unchecked")
+            Map<String, Class<?>> classes = (Map<String, Class<?>>) classesField.get(loader);
+            classesField.set(loader, new LazyClassMap(classes));
+            return true;
+        } catch (NoSuchFieldException e) {
+            LoaderLog.warn(logPrefix + "PluginClassLoaderにclassesが無いため、全件を復号化します。");
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * 遅延復号化で、要求されたクラスを復号化して定義します。複数のスレッドから同時に呼ばれます。
+     * 同じクラスを別のスレッドが先に定義していた場合は、そのクラスを返します。
+     *
+     * @return 定義したクラス(復号化・定義できなかった場合はnull)
+     * @throws LinkageError ClassFormatErrorとNoClassDefFoundErrorは、PluginClassLoaderの呼び出し元へそのまま投げます
+     */
+    private Class<?> defineLazily(String className, String entryName, byte[] encryptedClassBytes) {
+        if (LoaderLog.isDebug()) LoaderLog.debug(entryName + "の復号化中");
+        byte[] classBytes = decrypt(encryptedClassBytes);
+        if (classBytes == null) {
+            LoaderLog.error(logPrefix + entryName + "を復号化できません。");
+            return null;
+        }
+        try {
+            return definer.define(className, classBytes);
+        } catch (ClassFormatError | NoClassDefFoundError e) {
+            throw e;
+        } catch (LinkageError e) {
+            // サブクラスでないLinkageErrorは、別のスレッドが先に定義した(attempted duplicate class definition)
+            if (e.getClass() == LinkageError.class) return findDefined(className);
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 定義済みのクラスを引きます。PluginClassLoaderは findLoadedClass で先に見つけるので、定義し直すことはありません。
+     */
+    private Class<?> findDefined(String className) {
+        try {
+            return Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * PluginClassLoaderのfindClassが最初に引くキャッシュです。
+     * 無いクラスが暗号化したクラスなら、その場で復号化・定義して返すので、
+     * 暗号文は実際に要求されるまで復号化されません。スーパークラスなどは定義中に同じ経路で再帰的に読み込まれます。
+     * <p>
+     * 元のキャッシュと同じく、put や remove はどのスレッドからでも呼べます(ConcurrentHashMap)。
+     * 定義中はJVMがPluginClassLoaderのロックを取ってスーパークラスを読み込むので、このマップのロックを持ったまま定義すると、
+     * PluginClassLoaderのロックを持って get を呼んだ別のスレッドとデッドロックします。
+     * そのため復号化と定義はロックを持たずに行い、同じクラスを同時に定義した場合は先に定義された方を返します。
+     */
+    @SuppressWarnings("serial")
+    private class LazyClassMap extends ConcurrentHashMap<String, Class<?>> {
+
+        LazyClassMap(Map<String, Class<?>> map) {
+            super(map);
+        }
+
+        @Override
+        public Class<?> get(Object name) {
+            Class<?> result = super.get(name);
+            if (result != null || !(name instanceof String)) return result;
+            String entryName = ((String) name).replace('.', '/') + ".class";
+            byte[] encryptedClassBytes = pack != null ? pack.get(entryName) : classes.get(entryName);
+            if (encryptedClassBytes == null) return null;
+            result = defineLazily((String) name, entryName, encryptedClassBytes);
+            if (result == null) return null;
+            Class<?> previous = putIfAbsent((String) name, result);
+            if (pack == null) classes.remove(entryName);
+            return previous != null ? previous : result;
+        }
+    }
+
+    private void runPlugin() {
+        try {
+            if (mainClass == null) mainClass = classLoader.loadClass(mainClassName);   // 平文のメインクラス
+            Constructor loadedClassConstructor = mainClass.getConstructor(null);
+            loadedClassConstructor.setAccessible(true);
+
+            this.javaPlugin = (JavaPlugin) loadedClassConstructor.newInstance();
+            pluginSurikae(this.javaPlugin);
+            host.getServer().getPluginManager().enablePlugin(this.javaPlugin);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+        }
+    }
+}
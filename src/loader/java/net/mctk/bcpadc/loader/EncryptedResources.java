@@ -0,0 +1,259 @@
+package net.mctk.bcpadc.loader;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+
+/**
+ * 難読化時に暗号化したリソース(設定ファイル、言語ファイル、スケマティックなど)を読みながら復号化します。
+ * 暗号化したリソースは {@value #DIRECTORY} 以下に元の名前で格納され、元の場所にはありません。
+ * <p>
+ * 難読化ツールは、暗号化したクラスの中の getResource、getResourceAsStream、saveResource、saveDefaultConfig の呼び出しを
+ * このクラスのstaticメソッドに置き換えます(Plugin と ClassLoader のメソッドは、呼び出し先がそのサブクラスと分かる場合だけ)。
+ * 暗号化したリソースなら復号化するストリームを返し、それ以外は元のメソッドを呼びます。
+ * 暗号文はjarから少しずつ読んで復号化するので、大きなリソースでも全体をメモリに載せることはありません。
+ * <p>
+ * 共有ランタイム({@link DecryptRuntime})では全プラグインでこのクラスを共有するので、
+ * 呼び出し先のオブジェクトを読み込んだPluginClassLoaderで、どのプラグインのリソースかを決めます。
+ */
+public final class EncryptedResources {
+
+    /**
+     * 暗号化したリソースを格納するディレクトリ
+     */
+    public static final String DIRECTORY = "META-INF/cbpadc-resources/";
+    /**
+     * 暗号化したリソースの名前の一覧(1行に1つ)
+     */
+    static final String LIST = "META-INF/cbpadc-resources.list";
+    private static final String PROTOCOL = "cbpadc";
+
+    private static final Map<ClassLoader, EncryptedResources> registry = new ConcurrentHashMap<>();
+
+    private final JarFile jarFile;
+    private final CipherEngine engine;
+    private final Set<String> names;
+    private final URLStreamHandler handler = new URLStreamHandler() {
+        @Override
+        protected URLConnection openConnection(URL url) {
+            return new URLConnection(url) {
+                @Override
+                public void connect() {
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return open(getURL().getPath().substring(1));
+                }
+            };
+        }
+    };
+
+    /**
+     * @param jarFile プラグインのjar(閉じるまで開いたままにします)
+     * @param engine  リソースの復号化に使う方式と鍵(aes-ctr)
+     * @param names   暗号化したリソースの名前
+     */
+    EncryptedResources(JarFile jarFile, CipherEngine engine, Set<String> names) {
+        this.jarFile = jarFile;
+        this.engine = engine;
+        this.names = names;
+    }
+
+    /**
+     * 以降、このローダーで読み込んだクラスからの呼び出しに、暗号化したリソースを返します。
+     */
+    void register(ClassLoader loader) {
+        registry.put(loader, this);
+    }
+
+    /**
+     * 登録を解除し、jarを閉じます。
+     */
+    void close(ClassLoader loader) {
+        registry.remove(loader, this);
+        try {
+            jarFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    private boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * @return 復号化しながら読むストリーム
+     */
+    private InputStream open(String name) throws IOException {
+        JarEntry entry = jarFile.getJarEntry(DIRECTORY + name);
+        if (entry == null) throw new FileNotFoundException(DIRECTORY + name);
+        InputStream in = jarFile.getInputStream(entry);
+        try {
+            return engine.decrypt(new BufferedInputStream(in, 8192));
+        } catch (GeneralSecurityException e) {
+            in.close();
+            throw new IOException(name + "を復号化できません。", e);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private URL url(String name) {
+        try {
+            return new URL(PROTOCOL, null, -1, "/" + name, handler);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return typeのローダーに登録されていて、nameを暗号化している場合はそのリソース、それ以外はnull
+     */
+    private static EncryptedResources find(Class<?> type, String name) {
+        if (type == null || name == null) return null;
+        ClassLoader loader = type.getClassLoader();
+        EncryptedResources resources = loader != null ? registry.get(loader) : null;
+        return resources != null && resources.contains(name) ? resources : null;
+    }
+
+    /**
+     * Plugin.getResource(String) の置き換え
+     */
+    public static InputStream pluginResource(Plugin owner, String name) {
+        EncryptedResources resources = find(owner.getClass(), name);
+        if (resources == null) return owner.getResource(name);
+        try {
+            return resources.open(name);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Class.getResourceAsStream(String) の置き換え
+     */
+    public static InputStream classResourceAsStream(Class<?> type, String name) {
+        EncryptedResources resources = find(type, resolveName(type, name));
+        if (resources == null) return type.getResourceAsStream(name);
+        try {
+            return resources.open(resolveName(type, name));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Class.getResource(String) の置き換え
+     */
+    public static URL classResource(Class<?> type, String name) {
+        EncryptedResources resources = find(type, resolveName(type, name));
+        return resources == null ? type.getResource(name) : resources.url(resolveName(type, name));
+    }
+
+    /**
+     * ClassLoader.getResourceAsStream(String) の置き換え
+     */
+    public static InputStream loaderResourceAsStream(ClassLoader loader, String name) {
+        EncryptedResources resources = name != null ? registry.get(loader) : null;
+        if (resources == null || !resources.contains(name)) return loader.getResourceAsStream(name);
+        try {
+            return resources.open(name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * ClassLoader.getResource(String) の置き換え
+     */
+    public static URL loaderResource(ClassLoader loader, String name) {
+        EncryptedResources resources = name != null ? registry.get(loader) : null;
+        if (resources == null || !resources.contains(name)) return loader.getResource(name);
+        return resources.url(name);
+    }
+
+    /**
+     * Plugin.saveResource(String, boolean) の置き換え。JavaPluginの実装と同じく、データフォルダへ書き出します。
+     */
+    public static void saveResource(Plugin plugin, String resourcePath, boolean replace) {
+        String name = resourcePath != null ? resourcePath.replace('\\', '/') : null;
+        EncryptedResources resources = find(plugin.getClass(), name);
+        if (resources == null) {
+            plugin.saveResource(resourcePath, replace);
+            return;
+        }
+        File outFile = new File(plugin.getDataFolder(), name);
+        File outDir = outFile.getParentFile();
+        if (!outDir.exists()) outDir.mkdirs();
+        if (outFile.exists() && !replace) {
+            plugin.getLogger().log(Level.WARNING, "Could not save " + outFile.getName() + " to " + outFile + " because " + outFile.getName() + " already exists.");
+            return;
+        }
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = resources.open(name);
+            out = new FileOutputStream(outFile);
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not save " + outFile.getName() + " to " + outFile, e);
+        } finally {
+            closeQuietly(out);
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Plugin.saveDefaultConfig() の置き換え
+     */
+    public static void saveDefaultConfig(Plugin plugin) {
+        if (find(plugin.getClass(), "config.yml") == null) {
+            plugin.saveDefaultConfig();
+        } else if (!new File(plugin.getDataFolder(), "config.yml").exists()) {
+            saveResource(plugin, "config.yml", false);
+        }
+    }
+
+    /**
+     * Class.getResource と同じく、先頭が / でなければクラスのパッケージからの相対パスとします。
+     */
+    static String resolveName(Class<?> type, String name) {
+        if (type == null || name == null) return name;
+        if (name.startsWith("/")) return name.substring(1);
+        while (type.isArray()) type = type.getComponentType();
+        String className = type.getName();
+        int index = className.lastIndexOf('.');
+        return index < 0 ? name : className.substring(0, index).replace('.', '/') + "/" + name;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
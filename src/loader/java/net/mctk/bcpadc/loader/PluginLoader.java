@@ -0,0 +1,50 @@
+package net.mctk.bcpadc.loader;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Created by 2016/08/01.
+ * <p>
+ * jarに埋め込む場合のPluginLoaderです。復号化と起動は {@link EncryptedPlugin} が行い、
+ * ワーカーは有効化の間だけこのプラグイン用に作ります。
+ */
+public class PluginLoader extends JavaPlugin {
+
+    private EncryptedPlugin encryptedPlugin;
+
+    @Override
+    public void onEnable() {
+        LoaderLog.setLogger(getLogger());
+        encryptedPlugin = new EncryptedPlugin(this, getFile(), getClassLoader(), null);
+        int threads = EncryptedPlugin.decryptThreads();
+        ExecutorService pool = EncryptedPlugin.newDecryptPool(threads);
+        try {
+            encryptedPlugin.enable(pool, threads);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Override
+    public void onDisable() {
+        if (encryptedPlugin != null) encryptedPlugin.disable();
+        LoaderLog.close();
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        JavaPlugin javaPlugin = encryptedPlugin == null ? null : encryptedPlugin.getPlugin();
+        return javaPlugin == null ? false : javaPlugin.onCommand(sender, command, label, args);
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        JavaPlugin javaPlugin = encryptedPlugin == null ? null : encryptedPlugin.getPlugin();
+        return javaPlugin == null ? null : javaPlugin.onTabComplete(sender, command, alias, args);
+    }
+}
@@ -0,0 +1,47 @@
+package net.mctk.bcpadc.loader;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.List;
+
+/**
+ * 共有ランタイムを使う場合に、PluginLoaderの代わりにjarへ埋め込む薄いプラグインです。
+ * 難読化時に(プラグインのパッケージ).PluginLoader へ名前を変えて移され、
+ * 復号化と起動はすべて {@link DecryptRuntime} に任せます。
+ * plugin.yml の depend にランタイムを追加するので、ランタイムは必ず先に有効化されています。
+ */
+public class PluginStub extends JavaPlugin {
+
+    private DecryptRuntime runtime;
+
+    @Override
+    public void onEnable() {
+        Plugin plugin = getServer().getPluginManager().getPlugin(SharedRuntime.NAME);
+        if (!(plugin instanceof DecryptRuntime)) {
+            getLogger().severe(SharedRuntime.NAME + "がありません。共有ランタイムのjarをpluginsに入れてください。");
+            return;
+        }
+        runtime = (DecryptRuntime) plugin;
+        runtime.enable(this, getFile(), getClassLoader());
+    }
+
+    @Override
+    public void onDisable() {
+        if (runtime != null) runtime.disable(this);
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        JavaPlugin javaPlugin = runtime == null ? null : runtime.getPlugin(this);
+        return javaPlugin == null ? false : javaPlugin.onCommand(sender, command, label, args);
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        JavaPlugin javaPlugin = runtime == null ? null : runtime.getPlugin(this);
+        return javaPlugin == null ? null : javaPlugin.onTabComplete(sender, command, alias, args);
+    }
+}
@@ -0,0 +1,85 @@
+package net.mctk.bcpadc;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import net.mctk.bcpadc.loader.CipherEngine;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * -cipher-bench: このJVMと、AESのハードウェア命令(intrinsics)が有効かどうかを表示してから、
+ * JMHのベンチマーク(net.mctk.bcpadc.bench.CipherBenchmark)で暗号方式ごとのスループットを測ります。
+ * 測定はJMHに任せるので、JMHとベンチマークがクラスパスに無い場合は gradle jmh での実行方法を表示します。
+ */
+public final class CipherBenchLauncher {
+
+    private static final String[] VM_FLAGS = {"UseAES", "UseAESIntrinsics", "UseAESCTRIntrinsics", "UseChaCha20Intrinsics"};
+    private static final String BENCHMARK = "net.mctk.bcpadc.bench.CipherBenchmark";
+    private static final String JMH_MAIN = "org.openjdk.jmh.Main";
+
+    private CipherBenchLauncher() {
+    }
+
+    /**
+     * JVMの情報を書き出して、ベンチマークを実行します。使えない方式は unsupported と表示します。
+     */
+    public static void run(PrintStream out) {
+        out.println("java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name")
+                + ", " + System.getProperty("os.arch") + ")");
+        out.println(vmFlags());
+        for (CipherEngine.Mode mode : CipherEngine.Mode.values()) {
+            out.println(String.format("%-9s %s (%s)", mode, mode.isSupported() ? "supported" : "unsupported", mode.getTransformation()));
+        }
+
+        Method main;
+        try {
+            Class.forName(BENCHMARK);
+            main = Class.forName(JMH_MAIN).getMethod("main", String[].class);
+        } catch (ClassNotFoundException e) {
+            out.println("JMHがクラスパスにありません。gradle jmh -PjmhArgs=CipherBenchmark で測定してください。");
+            return;
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            return;
+        }
+        try {
+            main.invoke(null, (Object) new String[]{BENCHMARK});
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        } catch (InvocationTargetException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * HotSpotのAES関連のフラグ。HotSpot以外のJVMや、そのバージョンに無いフラグは n/a です。
+     */
+    private static String vmFlags() {
+        StringBuilder flags = new StringBuilder();
+        HotSpotDiagnosticMXBean hotSpot = null;
+        try {
+            hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        } catch (IllegalArgumentException ignored) {
+            // HotSpotではない
+        }
+        boolean missing = false;
+        for (String flag : VM_FLAGS) {
+            String value = "n/a";
+            if (hotSpot != null) {
+                try {
+                    value = hotSpot.getVMOption(flag).getValue();
+                } catch (IllegalArgumentException ignored) {
+                    // このバージョンには無いフラグ
+                }
+            }
+            if (flags.length() > 0) flags.append(' ');
+            flags.append(flag).append('=').append(value);
+            missing |= value.equals("n/a");
+        }
+        // Java 9以降では UseAESIntrinsics などは診断用のフラグで、ロックを外さないと読めない
+        if (missing && hotSpot != null) flags.append(" (n/a は、このJavaに無いフラグか、-XX:+UnlockDiagnosticVMOptions を付けると読める診断用のフラグです)");
+        return flags.toString();
+    }
+}
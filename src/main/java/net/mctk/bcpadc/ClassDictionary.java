@@ -0,0 +1,138 @@
+package net.mctk.bcpadc;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * クラスファイルを圧縮するためのプリセット辞書を、jar自身のクラスファイルから作ります。
+ * クラス名、ディスクリプタ、属性名などの共通部分はすべて定数プールのCONSTANT_Utf8に入っているので、
+ * 複数のクラスに現れるUtf8を(タグと長さも含めたバイト列のまま)辞書に並べます。
+ * Deflateは近い位置の一致ほど短く符号化するので、役に立つものほど辞書の末尾に置きます。
+ */
+public final class ClassDictionary {
+
+    /**
+     * Deflateのウィンドウサイズ。これより前の辞書は参照されません。
+     */
+    public static final int MAX_SIZE = 32 * 1024;
+    /**
+     * 学習に使うクラスファイルの合計サイズの上限
+     */
+    public static final long MAX_SAMPLE_BYTES = 8L * 1024 * 1024;
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private final Map<String, Integer> counts = new HashMap<String, Integer>();
+    private long sampleBytes;
+
+    /**
+     * クラスファイルを1つ学習します。同じクラスの中で重複するUtf8は1回と数えます。
+     *
+     * @return まだ学習できる場合はtrue、上限に達した場合はfalse
+     */
+    public boolean add(byte[] classFile) {
+        sampleBytes += classFile.length;
+        try {
+            for (String utf8 : readUtf8(classFile)) {
+                Integer count = counts.get(utf8);
+                counts.put(utf8, count == null ? 1 : count + 1);
+            }
+        } catch (IOException ignored) {
+            // クラスファイルとして読めないものは辞書に使わない
+        }
+        return sampleBytes < MAX_SAMPLE_BYTES;
+    }
+
+    /**
+     * @return 辞書(学習したクラスが少なく、共通部分が無い場合は空)
+     */
+    public byte[] build() {
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<Map.Entry<String, Integer>>();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1) candidates.add(entry);
+        }
+        // 他のクラスで省ける見込みのバイト数が大きい順
+        Collections.sort(candidates, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                long sa = (long) (a.getValue() - 1) * a.getKey().length();
+                long sb = (long) (b.getValue() - 1) * b.getKey().length();
+                return sa != sb ? (sa > sb ? -1 : 1) : a.getKey().compareTo(b.getKey());
+            }
+        });
+        List<String> selected = new ArrayList<String>();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : candidates) {
+            int length = entry.getKey().length();
+            if (size + length > MAX_SIZE) continue;
+            selected.add(entry.getKey());
+            size += length;
+        }
+        Collections.reverse(selected);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        for (String utf8 : selected) {
+            for (int i = 0; i < utf8.length(); i++) {
+                out.write(utf8.charAt(i));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 定数プールのCONSTANT_Utf8を、タグ(1)と長さを含むバイト列のまま返します(1文字が1バイト)。
+     */
+    static Set<String> readUtf8(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != MAGIC) throw new IOException("クラスファイルではありません。");
+        in.readUnsignedShort();     // minor_version
+        in.readUnsignedShort();     // major_version
+
+        Set<String> utf8 = new LinkedHashSet<String>();
+        int count = in.readUnsignedShort();
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:     // Utf8
+                    int length = in.readUnsignedShort();
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    StringBuilder entry = new StringBuilder(length + 3);
+                    entry.append((char) 1).append((char) (length >>> 8)).append((char) (length & 0xff));
+                    for (byte b : bytes) {
+                        entry.append((char) (b & 0xff));
+                    }
+                    utf8.add(entry.toString());
+                    break;
+                case 7:     // Class
+                case 8:     // String
+                case 16:    // MethodType
+                case 19:    // Module
+                case 20:    // Package
+                    in.skipBytes(2);
+                    break;
+                case 15:    // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3:     // Integer
+                case 4:     // Float
+                case 9:     // Fieldref
+                case 10:    // Methodref
+                case 11:    // InterfaceMethodref
+                case 12:    // NameAndType
+                case 17:    // Dynamic
+                case 18:    // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5:     // Long
+                case 6:     // Double
+                    in.skipBytes(8);
+                    i++;    // 2スロット使う
+                    break;
+                default:
+                    throw new IOException("未知の定数プールタグです。tag=" + tag + ", index=" + i);
+            }
+        }
+        return utf8;
+    }
+}
@@ -0,0 +1,182 @@
+package net.mctk.bcpadc;
+
+import net.mctk.bcpadc.loader.CipherEngine;
+import net.mctk.bcpadc.loader.ClassCompression;
+import net.mctk.bcpadc.loader.LoaderLog;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+/**
+ * クラスファイルの暗号化をワーカースレッドに振り分けます。
+ * 暗号化は {@link CipherEngine} で行い、Cipherはスレッドごとに1つだけ生成して使い回します。
+ * ワーカーは複数のジョブで共有できます(Cipherは鍵ごと、つまりインスタンスごとに持ちます)。
+ * 結果は投入順に受け取れるようにFutureで返すので、出力順は入力順と変わりません。
+ * 暗号化した直後に、メモリ上の暗号文で {@link RoundTripVerifier} による復号の検証を行います。
+ * 処理時間などはワーカー側で計測し、ジョブの {@link JobMetrics} の段階に足し込みます。
+ * プリセット辞書を指定した場合は、暗号化する前に {@link ClassCompression} で圧縮します。
+ * リソースを暗号化する場合は、暗号化する前に {@link ResourceCallRewriter} でリソースを読む呼び出しを置き換えます。
+ */
+public class ClassEncryptor {
+
+    private final CipherEngine engine;
+    private final RoundTripVerifier verifier;
+    private final ExecutorService executor;
+    private final JobMetrics.Stage stage;
+    private final byte[] dictionary;
+    private final ResourceCallRewriter rewriter;
+    private final ThreadLocal<Deflater> deflater;
+
+    /**
+     * 従来の方式(aes-ecb)で、圧縮せずに暗号化します。
+     *
+     * @param key      暗号化に使う鍵
+     * @param executor 暗号化を行うワーカー
+     * @param verifier 暗号化結果の検証
+     * @param stage    計測値を足し込む段階
+     */
+    public ClassEncryptor(Key key, ExecutorService executor, RoundTripVerifier verifier, JobMetrics.Stage stage) {
+        this(new CipherEngine(CipherEngine.Mode.AES_ECB, key), executor, verifier, stage, null, Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    /**
+     * @param engine     暗号化の方式と鍵
+     * @param executor   暗号化を行うワーカー
+     * @param verifier   暗号化結果の検証
+     * @param stage      計測値を足し込む段階
+     * @param dictionary 暗号化前の圧縮に使うプリセット辞書(nullの場合は圧縮しません)
+     * @param level      圧縮レベル
+     * @param rewriter   暗号化前にリソースを読む呼び出しを置き換える場合に指定します(nullの場合は置き換えません)
+     */
+    public ClassEncryptor(CipherEngine engine, ExecutorService executor, RoundTripVerifier verifier, JobMetrics.Stage stage,
+                          byte[] dictionary, final int level, ResourceCallRewriter rewriter) {
+        this.engine = engine;
+        this.executor = executor;
+        this.verifier = verifier;
+        this.stage = stage;
+        this.dictionary = dictionary;
+        this.rewriter = rewriter;
+        this.deflater = new ThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(level);
+            }
+        };
+    }
+
+    /**
+     * 暗号化用のワーカーを生成します。
+     *
+     * @param threads ワーカースレッド数
+     */
+    public static ExecutorService newExecutor(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("スレッド数は1以上を指定してください。threads=" + threads);
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cbpadc-encrypt-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public byte[] encrypt(byte[] bytes) throws GeneralSecurityException {
+        if (dictionary != null) bytes = ClassCompression.deflate(bytes, dictionary, deflater.get());
+        return engine.encrypt(bytes);
+    }
+
+    /**
+     * メモリ上のクラスファイルを暗号化します。
+     *
+     * @param name  エントリ名(ログ用)
+     * @param bytes 平文のクラスファイル
+     * @return 暗号化されたクラスファイル
+     */
+    public Future<byte[]> submit(final String name, final byte[] bytes) {
+        return executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                JobMetrics.Sample sample = stage.start();
+                if (LoaderLog.isDebug()) LoaderLog.debug(name + "を暗号化中");
+                byte[] plain = rewrite(name, bytes);
+                byte[] encrypted = encrypt(plain);
+                verify(name, encrypted, plain);
+                sample.stop(bytes.length, encrypted.length, 1);
+                return encrypted;
+            }
+        });
+    }
+
+    /**
+     * ディスク上のクラスファイルを暗号化して上書きします。
+     *
+     * @param name エントリ名(展開先によらず、ストリーム処理と同じ名前で検証対象を選びます)
+     * @param file 対象のクラスファイル
+     */
+    public Future<byte[]> submit(final String name, final File file) {
+        return executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                JobMetrics.Sample sample = stage.start();
+                if (LoaderLog.isDebug()) LoaderLog.debug(name + "を暗号化中");
+                byte[] bytes = FileUtils.readFileToByteArray(file);
+                byte[] plain = rewrite(name, bytes);
+                byte[] encrypted = encrypt(plain);
+                FileUtils.writeByteArrayToFile(file, encrypted);
+                verify(name, encrypted, plain);
+                sample.stop(bytes.length, encrypted.length, 1);
+                return encrypted;
+            }
+        });
+    }
+
+    /**
+     * 読めないクラスファイルは置き換えずにそのまま暗号化します(PluginLoaderが定義できるかどうかは変わりません)。
+     */
+    private byte[] rewrite(String name, byte[] bytes) {
+        if (rewriter == null) return bytes;
+        try {
+            return rewriter.rewrite(bytes);
+        } catch (IOException e) {
+            LoaderLog.warn(name + ": リソースを読む呼び出しを置き換えられません。(" + e.getMessage() + ")");
+            return bytes;
+        }
+    }
+
+    /**
+     * Futureの結果を取り出します。ワーカーで発生した例外はIOExceptionとして投げ直します。
+     */
+    public static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("暗号化が中断されました。", e);
+        } catch (ExecutionException e) {
+            throw new IOException("暗号化に失敗しました。", e.getCause());
+        }
+    }
+
+    private void verify(String name, byte[] encrypted, byte[] orig) {
+        if (!verifier.shouldVerify(name)) return;
+        try {
+            byte[] decrypted = engine.decrypt(encrypted);
+            if (dictionary != null) decrypted = ClassCompression.inflate(decrypted, dictionary);
+            verifier.record(name, Arrays.equals(decrypted, orig));
+        } catch (GeneralSecurityException e) {
+            verifier.record(name, false);
+        } catch (DataFormatException e) {
+            verifier.record(name, false);
+        }
+    }
+}
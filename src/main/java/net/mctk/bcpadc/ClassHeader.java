@@ -0,0 +1,160 @@
+package net.mctk.bcpadc;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * クラスファイルのヘッダからスーパークラスとインターフェースを読み、クラスを定義できる順番を求めます。
+ * PluginLoaderはこの順番で定義すれば、スーパークラスが未定義で失敗して再試行することがありません。
+ */
+public final class ClassHeader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    /**
+     * パッケージの目印に使うクラスファイルのエントリ名(パッケージのディレクトリからの相対名)
+     */
+    public static final String PACKAGE_INFO = "package-info.class";
+
+    private ClassHeader() {
+    }
+
+    /**
+     * @param classFile クラスファイル(平文)
+     * @return スーパークラスとインターフェースのエントリ名(com/example/Foo.class)
+     * @throws IOException クラスファイルとして読めない場合
+     */
+    public static List<String> supertypes(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != MAGIC) throw new IOException("クラスファイルではありません。");
+        in.readUnsignedShort();     // minor_version
+        in.readUnsignedShort();     // major_version
+
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNames = new int[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:     // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 7:     // Class
+                    classNames[i] = in.readUnsignedShort();
+                    break;
+                case 8:     // String
+                case 16:    // MethodType
+                case 19:    // Module
+                case 20:    // Package
+                    in.skipBytes(2);
+                    break;
+                case 15:    // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                case 3:     // Integer
+                case 4:     // Float
+                case 9:     // Fieldref
+                case 10:    // Methodref
+                case 11:    // InterfaceMethodref
+                case 12:    // NameAndType
+                case 17:    // Dynamic
+                case 18:    // InvokeDynamic
+                    in.skipBytes(4);
+                    break;
+                case 5:     // Long
+                case 6:     // Double
+                    in.skipBytes(8);
+                    i++;    // 2スロット使う
+                    break;
+                default:
+                    throw new IOException("未知の定数プールタグです。tag=" + tag + ", index=" + i);
+            }
+        }
+        in.readUnsignedShort();     // access_flags
+        in.readUnsignedShort();     // this_class
+
+        List<String> supertypes = new ArrayList<String>();
+        int superClass = in.readUnsignedShort();
+        if (superClass != 0) supertypes.add(utf8[classNames[superClass]] + ".class");
+        int interfaces = in.readUnsignedShort();
+        for (int i = 0; i < interfaces; i++) {
+            supertypes.add(utf8[classNames[in.readUnsignedShort()]] + ".class");
+        }
+        return supertypes;
+    }
+
+    /**
+     * スーパークラスとインターフェースが先に来る順番に並べます(同じ条件ならエントリ名の順)。
+     * 対象に含まれないスーパークラス(Bukkitのクラスや平文のクラスなど)は無視します。
+     *
+     * @param supertypes エントリ名と、そのスーパークラスとインターフェース
+     * @return 定義する順番
+     */
+    public static List<String> order(Map<String, List<String>> supertypes) {
+        List<String> order = new ArrayList<String>(supertypes.size());
+        Set<String> visited = new HashSet<String>();
+        for (String name : new TreeSet<String>(supertypes.keySet())) {
+            visit(name, supertypes, visited, order);
+        }
+        return order;
+    }
+
+    /**
+     * 継承が深くてもスタックを使い切らないように、明示的なスタックで深さ優先にたどります。
+     */
+    private static void visit(String root, Map<String, List<String>> supertypes, Set<String> visited, List<String> order) {
+        if (!visited.add(root)) return;
+        Deque<String> names = new ArrayDeque<String>();
+        Deque<Iterator<String>> parents = new ArrayDeque<Iterator<String>>();
+        names.push(root);
+        parents.push(supertypes.get(root).iterator());
+        while (!names.isEmpty()) {
+            Iterator<String> it = parents.peek();
+            if (it.hasNext()) {
+                String parent = it.next();
+                if (supertypes.containsKey(parent) && visited.add(parent)) {
+                    names.push(parent);
+                    parents.push(supertypes.get(parent).iterator());
+                }
+            } else {
+                parents.pop();
+                order.add(names.pop());
+            }
+        }
+    }
+
+    /**
+     * 中身の無い package-info のクラスファイルを作ります。
+     * 暗号化したクラスしか無いパッケージに平文で置いておくと、Java 9以降のPluginLoaderが
+     * このクラスを足がかりにして、パッケージのクラスを MethodHandles.Lookup で定義できます。
+     *
+     * @param packagePath パッケージのディレクトリ(com/example/、無名パッケージは空文字列)
+     */
+    public static byte[] packageInfo(String packagePath) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(0);          // minor_version
+            out.writeShort(51);         // major_version (Java 7)
+            out.writeShort(5);          // constant_pool_count
+            out.writeByte(1);           // #1 Utf8
+            out.writeUTF(packagePath + "package-info");
+            out.writeByte(7);           // #2 Class #1
+            out.writeShort(1);
+            out.writeByte(1);           // #3 Utf8
+            out.writeUTF("java/lang/Object");
+            out.writeByte(7);           // #4 Class #3
+            out.writeShort(3);
+            out.writeShort(0x1600);     // ACC_INTERFACE | ACC_ABSTRACT | ACC_SYNTHETIC
+            out.writeShort(2);          // this_class
+            out.writeShort(4);          // super_class
+            out.writeShort(0);          // interfaces_count
+            out.writeShort(0);          // fields_count
+            out.writeShort(0);          // methods_count
+            out.writeShort(0);          // attributes_count
+        } catch (IOException e) {
+            throw new IllegalStateException(e);     // ByteArrayOutputStreamなので起きない
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,412 @@
+package net.mctk.bcpadc;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * コンパイル済みのクラスファイルの定数プールを書き換えて、別のパッケージへ移します。
+ * 書き換えるのはクラス名とディスクリプタとして使われているCONSTANT_Utf8だけです。
+ * CONSTANT_Class、NameAndTypeとMethodTypeのディスクリプタ、フィールドとメソッドのディスクリプタ、
+ * Signature、LocalVariableTable、アノテーションから参照されるUtf8を、クラス名の区切りを見て書き換えます。
+ * 文字列リテラル(CONSTANT_String)はそのままで、リテラルと同じUtf8を共有している場合は、書き換えたUtf8を末尾に追加します。
+ */
+public final class ClassRelocator {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    /**
+     * CONSTANT_Classの名前(クラス名、配列ならディスクリプタ)
+     */
+    private static final int CLASS_NAME = 1;
+    /**
+     * ディスクリプタかジェネリクスのシグネチャ
+     */
+    private static final int DESCRIPTOR = 2;
+
+    private ClassRelocator() {
+    }
+
+    /**
+     * @param classFile クラスファイル
+     * @param from      移動元のパッケージ(内部形式, 末尾に/)か、移動元のクラス(内部形式。ネストしたクラスも一緒に移します)
+     * @param to        移動先のパッケージ(内部形式, 末尾に/。デフォルトパッケージは空文字)か、移動先のクラス
+     * @return 書き換えたクラスファイル
+     * @throws IOException クラスファイルとして読めない場合
+     */
+    public static byte[] relocate(byte[] classFile, String from, String to) throws IOException {
+        try {
+            return relocate(ByteBuffer.wrap(classFile), classFile, from, to);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("クラスファイルが途中で終わっています。", e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("クラスファイルが壊れています。", e);
+        }
+    }
+
+    private static byte[] relocate(ByteBuffer in, byte[] classFile, String from, String to) throws IOException {
+        if (in.getInt() != MAGIC) throw new IOException("クラスファイルではありません。");
+        in.getShort();  // minor_version
+        in.getShort();  // major_version
+        int count = in.getShort() & 0xffff;
+        int[] tags = new int[count];
+        int[] starts = new int[count];
+        String[] utf8 = new String[count];
+        boolean[] literal = new boolean[count];
+        // クラス名とディスクリプタとして参照している位置: {u2の位置, Utf8のインデックス, 種類}
+        List<int[]> sites = new ArrayList<int[]>();
+        for (int i = 1; i < count; i++) {
+            starts[i] = in.position();
+            int tag = in.get() & 0xff;
+            tags[i] = tag;
+            switch (tag) {
+                case 1:     // Utf8
+                    byte[] bytes = new byte[in.getShort() & 0xffff];
+                    in.get(bytes);
+                    utf8[i] = decode(bytes);
+                    break;
+                case 7:     // Class
+                    sites.add(new int[]{in.position(), in.getShort() & 0xffff, CLASS_NAME});
+                    break;
+                case 16:    // MethodType
+                    sites.add(new int[]{in.position(), in.getShort() & 0xffff, DESCRIPTOR});
+                    break;
+                case 8:     // String
+                    literal[in.getShort() & 0xffff] = true;
+                    break;
+                case 19:    // Module
+                case 20:    // Package
+                    in.getShort();
+                    break;
+                case 15:    // MethodHandle
+                    in.get();
+                    in.getShort();
+                    break;
+                case 12:    // NameAndType
+                    in.getShort();
+                    sites.add(new int[]{in.position(), in.getShort() & 0xffff, DESCRIPTOR});
+                    break;
+                case 3:     // Integer
+                case 4:     // Float
+                case 9:     // Fieldref
+                case 10:    // Methodref
+                case 11:    // InterfaceMethodref
+                case 17:    // Dynamic
+                case 18:    // InvokeDynamic
+                    in.getInt();
+                    break;
+                case 5:     // Long
+                case 6:     // Double
+                    in.getLong();
+                    i++;    // 2スロット使う
+                    break;
+                default:
+                    throw new IOException("未知の定数プールタグです。tag=" + tag + ", index=" + i);
+            }
+        }
+        int constantPoolEnd = in.position();
+
+        in.getShort();  // access_flags
+        in.getShort();  // this_class
+        in.getShort();  // super_class
+        int interfaces = in.getShort() & 0xffff;
+        in.position(in.position() + 2 * interfaces);
+        readMembers(in, utf8, sites);  // fields
+        readMembers(in, utf8, sites);  // methods
+        readAttributes(in, utf8, sites);
+
+        // Utf8ごとに書き換え後の値を決める。リテラルと共有しているか、参照ごとに値が違う場合は末尾に追加する
+        Map<Integer, String> replaced = new HashMap<Integer, String>();
+        Map<Integer, Set<String>> values = new HashMap<Integer, Set<String>>();
+        for (int[] site : sites) {
+            String value = relocate(utf8[site[1]], site[2], from, to);
+            Set<String> set = values.get(site[1]);
+            if (set == null) values.put(site[1], set = new HashSet<String>());
+            set.add(value);
+        }
+        for (Map.Entry<Integer, Set<String>> entry : values.entrySet()) {
+            int index = entry.getKey();
+            if (!literal[index] && entry.getValue().size() == 1) {
+                String value = entry.getValue().iterator().next();
+                if (!value.equals(utf8[index])) replaced.put(index, value);
+            }
+        }
+        byte[] patched = classFile.clone();
+        Map<String, Integer> appended = new LinkedHashMap<String, Integer>();
+        int next = count;
+        for (int[] site : sites) {
+            int index = site[1];
+            if (replaced.containsKey(index)) continue;
+            String value = relocate(utf8[index], site[2], from, to);
+            if (value.equals(utf8[index])) continue;
+            Integer newIndex = appended.get(value);
+            if (newIndex == null) appended.put(value, newIndex = next++);
+            patched[site[0]] = (byte) (newIndex >>> 8);
+            patched[site[0] + 1] = (byte) (int) newIndex;
+        }
+        if (next > 0xffff) throw new IOException("定数プールが一杯です。");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(classFile.length + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(patched, 0, 8);
+        out.writeShort(next);
+        for (int i = 1; i < count; i++) {
+            if (tags[i] == 0) continue;     // LongとDoubleの2スロット目
+            int end = nextStart(tags, starts, i, constantPoolEnd);
+            if (replaced.containsKey(i)) {
+                out.writeByte(1);
+                out.writeUTF(replaced.get(i));
+            } else {
+                out.write(patched, starts[i], end - starts[i]);
+            }
+        }
+        for (String value : appended.keySet()) {
+            out.writeByte(1);
+            out.writeUTF(value);
+        }
+        // 定数プール以降はインデックス参照だけなので(追加したUtf8を指すように直したものを)そのままコピー
+        out.write(patched, constantPoolEnd, patched.length - constantPoolEnd);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * i の次の定数の開始位置(LongとDoubleの2スロット目を飛ばします)
+     */
+    private static int nextStart(int[] tags, int[] starts, int i, int constantPoolEnd) {
+        for (int j = i + 1; j < tags.length; j++) {
+            if (tags[j] != 0) return starts[j];
+        }
+        return constantPoolEnd;
+    }
+
+    private static void readMembers(ByteBuffer in, String[] utf8, List<int[]> sites) {
+        int members = in.getShort() & 0xffff;
+        for (int m = 0; m < members; m++) {
+            in.getShort();  // access_flags
+            in.getShort();  // name_index
+            sites.add(new int[]{in.position(), in.getShort() & 0xffff, DESCRIPTOR});
+            readAttributes(in, utf8, sites);
+        }
+    }
+
+    private static void readAttributes(ByteBuffer in, String[] utf8, List<int[]> sites) {
+        int attributes = in.getShort() & 0xffff;
+        for (int a = 0; a < attributes; a++) {
+            String name = utf8[in.getShort() & 0xffff];
+            int length = in.getInt();
+            int end = in.position() + length;
+            if ("Signature".equals(name)) {
+                sites.add(new int[]{in.position(), in.getShort() & 0xffff, DESCRIPTOR});
+            } else if ("Code".equals(name)) {
+                in.position(in.position() + 4);     // max_stack, max_locals
+                int codeLength = in.getInt();
+                in.position(in.position() + codeLength);
+                int exceptions = in.getShort() & 0xffff;
+                in.position(in.position() + 8 * exceptions);
+                readAttributes(in, utf8, sites);
+            } else if ("LocalVariableTable".equals(name) || "LocalVariableTypeTable".equals(name)) {
+                int variables = in.getShort() & 0xffff;
+                for (int v = 0; v < variables; v++) {
+                    in.position(in.position() + 6);     // start_pc, length, name_index
+                    sites.add(new int[]{in.position(), in.getShort() & 0xffff, DESCRIPTOR});
+                    in.getShort();  // index
+                }
+            } else if ("RuntimeVisibleAnnotations".equals(name) || "RuntimeInvisibleAnnotations".equals(name)) {
+                readAnnotations(in, sites);
+            } else if ("RuntimeVisibleParameterAnnotations".equals(name) || "RuntimeInvisibleParameterAnnotations".equals(name)) {
+                int parameters = in.get() & 0xff;
+                for (int p = 0; p < parameters; p++) {
+                    readAnnotations(in, sites);
+                }
+            } else if ("AnnotationDefault".equals(name)) {
+                readElementValue(in, sites);
+            }
+            in.position(end);
+        }
+    }
+
+    private static void readAnnotations(ByteBuffer in, List<int[]> sites) {
+        int annotations = in.getShort() & 0xffff;
+        for (int i = 0; i < annotations; i++) {
+            readAnnotation(in, sites);
+        }
+    }
+
+    private static void readAnnotation(ByteBuffer in, List<int[]> sites) {
+        sites.add(new int[]{in.position(), in.getShort() & 0xffff, DESCRIPTOR});     // type_index
+        int pairs = in.getShort() & 0xffff;
+        for (int i = 0; i < pairs; i++) {
+            in.getShort();  // element_name_index
+            readElementValue(in, sites);
+        }
+    }
+
+    private static void readElementValue(ByteBuffer in, List<int[]> sites) {
+        int tag = in.get() & 0xff;
+        switch (tag) {
+            case 'e':
+                sites.add(new int[]{in.position(), in.getShort() & 0xffff, DESCRIPTOR});     // type_name_index
+                in.getShort();  // const_name_index
+                break;
+            case 'c':
+                sites.add(new int[]{in.position(), in.getShort() & 0xffff, DESCRIPTOR});     // class_info_index(戻り値のディスクリプタ)
+                break;
+            case '@':
+                readAnnotation(in, sites);
+                break;
+            case '[':
+                int values = in.getShort() & 0xffff;
+                for (int i = 0; i < values; i++) {
+                    readElementValue(in, sites);
+                }
+                break;
+            default:
+                in.getShort();  // const_value_index
+        }
+    }
+
+    /**
+     * @param kind {@link #CLASS_NAME} か {@link #DESCRIPTOR}
+     */
+    static String relocate(String value, int kind, String from, String to) {
+        if (kind == CLASS_NAME && !value.startsWith("[")) return relocateName(value, from, to);
+        StringBuilder out = new StringBuilder(value.length() + 16);
+        new SignatureScanner(value, from, to, out).scan();
+        return out.toString();
+    }
+
+    /**
+     * from がパッケージ(末尾が/)ならその中のクラス、クラスならそのクラスとネストしたクラスを移します。
+     */
+    static String relocateName(String name, String from, String to) {
+        boolean matches = from.endsWith("/") ? name.startsWith(from) : name.equals(from) || name.startsWith(from + "$");
+        return matches ? to + name.substring(from.length()) : name;
+    }
+
+    /**
+     * 修正UTF-8(DataInputのreadUTFと同じ形式)を読みます。
+     */
+    private static String decode(byte[] bytes) throws IOException {
+        ByteArrayOutputStream prefixed = new ByteArrayOutputStream(bytes.length + 2);
+        prefixed.write(bytes.length >>> 8);
+        prefixed.write(bytes.length);
+        prefixed.write(bytes, 0, bytes.length);
+        return new DataInputStream(new ByteArrayInputStream(prefixed.toByteArray())).readUTF();
+    }
+
+    /**
+     * ディスクリプタとジェネリクスのシグネチャ(JVMS 4.7.9.1)をたどり、クラス名の部分だけを書き換えます。
+     * 型変数や型パラメータの名前は書き換えません。
+     */
+    private static final class SignatureScanner {
+        private final String s;
+        private final String from;
+        private final String to;
+        private final StringBuilder out;
+        private int pos;
+
+        SignatureScanner(String s, String from, String to, StringBuilder out) {
+            this.s = s;
+            this.from = from;
+            this.to = to;
+            this.out = out;
+        }
+
+        void scan() {
+            if (s.startsWith("<")) formalTypeParameters();
+            while (pos < s.length()) {
+                char c = s.charAt(pos);
+                if (c == '(' || c == ')' || c == '^') {
+                    out.append(c);
+                    pos++;
+                } else {
+                    type();
+                }
+            }
+        }
+
+        private void formalTypeParameters() {
+            out.append('<');
+            pos++;
+            while (s.charAt(pos) != '>') {
+                int colon = s.indexOf(':', pos);
+                out.append(s, pos, colon);
+                pos = colon;
+                while (s.charAt(pos) == ':') {
+                    out.append(':');
+                    pos++;
+                    char c = s.charAt(pos);
+                    if (c == 'L' || c == 'T' || c == '[') type();
+                }
+            }
+            out.append('>');
+            pos++;
+        }
+
+        private void type() {
+            char c = s.charAt(pos);
+            switch (c) {
+                case '[':
+                    out.append(c);
+                    pos++;
+                    type();
+                    break;
+                case 'T':
+                    int end = s.indexOf(';', pos) + 1;
+                    out.append(s, pos, end);
+                    pos = end;
+                    break;
+                case 'L':
+                    classType();
+                    break;
+                default:    // プリミティブとvoid
+                    out.append(c);
+                    pos++;
+            }
+        }
+
+        private void classType() {
+            out.append('L');
+            pos++;
+            out.append(relocateName(identifier(), from, to));
+            while (true) {
+                char c = s.charAt(pos);
+                if (c == '<') {
+                    out.append(c);
+                    pos++;
+                    while (s.charAt(pos) != '>') {
+                        char arg = s.charAt(pos);
+                        if (arg == '*') {
+                            out.append(arg);
+                            pos++;
+                            continue;
+                        }
+                        if (arg == '+' || arg == '-') {
+                            out.append(arg);
+                            pos++;
+                        }
+                        type();
+                    }
+                    out.append('>');
+                    pos++;
+                } else if (c == '.') {
+                    // 内部クラスの単純名(パッケージを含まない)
+                    out.append(c);
+                    pos++;
+                    out.append(identifier());
+                } else {
+                    out.append(';');
+                    pos++;
+                    return;
+                }
+            }
+        }
+
+        private String identifier() {
+            int start = pos;
+            while (s.charAt(pos) != ';' && s.charAt(pos) != '<' && s.charAt(pos) != '.') pos++;
+            return s.substring(start, pos);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package net.mctk.bcpadc;
+
+import net.mctk.bcpadc.loader.CipherEngine;
+import org.kohsuke.args4j.ClassParser;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.opengion.fukurou.util.Closer;
+
+import javax.crypto.KeyGenerator;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * JVMを起動したままにして難読化ジョブを受け付けます。
+ * JVMの起動やクラスロード、JITのウォームアップを1回で済ませるためのものです。
+ * <p>
+ * ジョブは標準入力かローカルのソケットから1行1ジョブで受け付けます。
+ * 行の書式はコマンドラインと同じで、-i と -o に加えて -s や -verify などのジョブのオプションが使えます。
+ * 暗号化のワーカーは全ジョブで共有するので、-j は起動時にだけ指定でき、ジョブの行では使えません。
+ * 応答は「OK 出力ファイル 処理時間」または「NG メッセージ」の1行です。quit で終了します。
+ * <p>
+ * 監視ディレクトリを指定した場合は、そこに置かれたjarを出力ディレクトリへ難読化します。
+ * 出力ディレクトリは監視ディレクトリの外でなければなりません(出力jarを入力として拾ってしまうため)。
+ * 処理したjarは更新日時とサイズを覚えておき、変わっていなければ再び処理しません。
+ */
+public class Daemon {
+
+    private static final long STABLE_WAIT_MS = 500;
+
+    private final JobOptions defaultOptions;
+    private final ExecutorService executor;
+    private final ExecutorService jobExecutor;
+    private final Set<Path> watching = Collections.synchronizedSet(new HashSet<Path>());
+    /**
+     * 処理したjarの、処理したときの更新日時とサイズ
+     */
+    private final Map<Path, String> processed = Collections.synchronizedMap(new HashMap<Path, String>());
+    private volatile boolean running = true;
+
+    /**
+     * @param defaultOptions 監視ディレクトリのジョブに使うオプション
+     * @param executor       暗号化に使うワーカー
+     * @param jobs           同時に処理するjarの数
+     */
+    public Daemon(JobOptions defaultOptions, ExecutorService executor, int jobs) {
+        this.defaultOptions = defaultOptions;
+        this.executor = executor;
+        this.jobExecutor = Executors.newFixedThreadPool(jobs);
+    }
+
+    /**
+     * テンプレートの読み込みとCipherの初期化を先に済ませます。
+     */
+    public void warmUp() {
+        try {
+            LoaderTemplate.relocate("");
+            new CipherEngine(defaultOptions.getCipherMode(), KeyGenerator.getInstance("AES").generateKey()).encrypt(new byte[1024]);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 標準入力からジョブを受け付けます。quit か入力の終わりで戻ります。
+     */
+    public void serveStdin() throws IOException {
+        serve(new BufferedReader(new InputStreamReader(System.in, "utf-8")), new PrintWriter(new OutputStreamWriter(System.out, "utf-8"), true));
+    }
+
+    /**
+     * ループバックアドレスのポートでジョブを受け付けます。接続ごとにスレッドを割り当てます。
+     */
+    public void serveSocket(int port) throws IOException {
+        final ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.out.println("待ち受け中: " + serverSocket.getLocalSocketAddress());
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try {
+            while (running) {
+                final Socket socket = serverSocket.accept();
+                connections.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        try {
+                            serve(new BufferedReader(new InputStreamReader(socket.getInputStream(), "utf-8")),
+                                    new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "utf-8"), true));
+                        } finally {
+                            Closer.ioClose(socket);
+                        }
+                        if (!running) Closer.ioClose(serverSocket);
+                        return null;
+                    }
+                });
+            }
+        } catch (IOException e) {
+            if (running) throw e;   // quitでソケットを閉じた場合は正常終了
+        } finally {
+            connections.shutdown();
+            Closer.ioClose(serverSocket);
+        }
+    }
+
+    /**
+     * ディレクトリを監視し、置かれたjarを難読化して出力ディレクトリに書き出します。
+     * 書き込み途中のjarを拾わないように、サイズが変わらなくなるまで待ってから処理します。
+     *
+     * @throws IllegalArgumentException 出力ディレクトリが監視ディレクトリと同じか、その中にある場合
+     */
+    public void watch(final File dropDir, final File outDir) throws IOException {
+        if (isSameOrUnder(outDir, dropDir)) throw new IllegalArgumentException("出力ディレクトリは監視ディレクトリの外にしてください。dir=" + outDir);
+        if (!outDir.exists() && !outDir.mkdirs()) throw new IOException("出力ディレクトリを作成できません。dir=" + outDir);
+        final WatchService watchService = FileSystems.getDefault().newWatchService();
+        dropDir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (running) {
+                        WatchKey watchKey = watchService.take();
+                        for (WatchEvent<?> event : watchKey.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+                            Path path = dropDir.toPath().resolve((Path) event.context());
+                            if (path.toString().endsWith(".jar") && !isProcessed(path) && watching.add(path)) {
+                                submitDropped(path, new File(outDir, path.getFileName().toString()));
+                            }
+                        }
+                        if (!watchKey.reset()) break;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    Closer.ioClose(watchService);
+                }
+            }
+        }, "cbpadc-watch");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("監視中: " + dropDir);
+    }
+
+    public void shutdown() {
+        running = false;
+        jobExecutor.shutdown();
+    }
+
+    private void submitDropped(final Path path, final File out) {
+        jobExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    waitUntilStable(path);
+                    if (isProcessed(path)) return;  // 処理中に来た変更の通知
+                    String signature = signature(path);
+                    System.out.println(format(runJob(path.toFile(), out, defaultOptions), out));
+                    // 失敗しても覚えておき、置き直されるまでは同じjarを何度も処理しない
+                    if (signature != null) processed.put(path, signature);
+                } catch (Exception e) {
+                    System.err.println("NG " + path + " " + e);
+                } finally {
+                    watching.remove(path);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return 前回処理したときから更新日時とサイズが変わっていない場合はtrue
+     */
+    private boolean isProcessed(Path path) {
+        String signature = signature(path);
+        return signature != null && signature.equals(processed.get(path));
+    }
+
+    /**
+     * @return 更新日時とサイズ(ファイルが無い場合はnull)
+     */
+    private static String signature(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis() + ":" + Files.size(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return dir が parent と同じか、その中にある場合はtrue
+     */
+    static boolean isSameOrUnder(File dir, File parent) {
+        File canonicalParent = canonical(parent);
+        for (File d = canonical(dir); d != null; d = d.getParentFile()) {
+            if (d.equals(canonicalParent)) return true;
+        }
+        return false;
+    }
+
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private void waitUntilStable(Path path) throws IOException, InterruptedException {
+        long size = -1;
+        while (Files.exists(path) && Files.size(path) != size) {
+            size = Files.size(path);
+            Thread.sleep(STABLE_WAIT_MS);
+        }
+    }
+
+    private void serve(BufferedReader reader, PrintWriter writer) throws IOException {
+        String line;
+        while (running && (line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            if (line.equals("quit")) {
+                shutdown();
+                writer.println("BYE");
+                break;
+            }
+            writer.println(handle(line));
+        }
+    }
+
+    private String handle(String line) {
+        JobRequest request = new JobRequest();
+        JobOptions options = new JobOptions();
+        CmdLineParser parser = new CmdLineParser(request);
+        new ClassParser().parse(options, parser);
+        List<String> args = new ArrayList<String>(Arrays.asList(tokenize(line)));
+        if (args.contains("-j")) return "NG -j はデーモンの起動時にだけ指定できます(暗号化のワーカーは全ジョブで共有します)";
+        // 展開や再圧縮のスレッド数も、共有しているワーカーと揃える
+        args.add(0, "-j");
+        args.add(1, String.valueOf(defaultOptions.getThreads()));
+        try {
+            parser.parseArgument(args);
+            options.validate();
+        } catch (CmdLineException e) {
+            return "NG " + e.getMessage();
+        } catch (IllegalArgumentException e) {
+            return "NG " + e.getMessage();
+        }
+
+        final File in = request.inFile;
+        final File out = request.outFile;
+        final JobOptions jobOptions = options;
+        Future<Long> future = jobExecutor.submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return runJob(in, out, jobOptions);
+            }
+        });
+        try {
+            return format(future.get(), out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "NG 中断されました";
+        } catch (ExecutionException e) {
+            return "NG " + e.getCause();
+        }
+    }
+
+    /**
+     * @return 処理時間(ms)。失敗した場合は-1
+     */
+    private long runJob(File in, File out, JobOptions options) {
+        long start = System.currentTimeMillis();
+        boolean success = new ObfuscationJob(in, out, options, executor).run();
+        return success ? System.currentTimeMillis() - start : -1;
+    }
+
+    private String format(long elapsed, File out) {
+        return elapsed < 0 ? "NG " + out : "OK " + out + " " + elapsed + "ms";
+    }
+
+    /**
+     * 空白で区切ります。空白を含むパスはダブルクォートで囲めます。
+     */
+    static String[] tokenize(String line) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        boolean quoted = false;
+        boolean hasToken = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                hasToken = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (hasToken) tokens.add(token.toString());
+                token.setLength(0);
+                hasToken = false;
+            } else {
+                token.append(c);
+                hasToken = true;
+            }
+        }
+        if (hasToken) tokens.add(token.toString());
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * 1行分のジョブの入出力。
+     */
+    static class JobRequest {
+        @Option(name = "-i", usage = "input from this file", metaVar = "INPUT", required = true)
+        File inFile;
+        @Option(name = "-o", usage = "output to this file", metaVar = "OUTPUT", required = true)
+        File outFile;
+    }
+}
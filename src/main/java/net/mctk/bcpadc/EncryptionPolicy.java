@@ -0,0 +1,166 @@
+package net.mctk.bcpadc;
+
+import org.opengion.fukurou.util.Closer;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * どのクラスファイルを暗号化するかを決めます。
+ * 暗号化しないクラスは通常のjarエントリのまま残り、サーバー側の PluginClassLoader が普通に読み込みます。
+ * <p>
+ * パッケージはクラス名(com.example.Foo)に対するglobで指定します。
+ * "*" はパッケージの区切り(.)をまたがず、"**" はまたいで一致します。
+ * 判定の順番は、除外パターン、含めるパターン(指定した場合のみ)、クラスファイルのサイズです。
+ * shadedLibs を有効にすると、よく同梱される外部ライブラリのパッケージを除外パターンに加えます。
+ * <p>
+ * YAMLファイルでは次のキーを使えます。
+ * <pre>
+ * include: [com.example.**]
+ * exclude: [com.example.api.**]
+ * minSize: 0
+ * maxSize: 1048576
+ * shadedLibs: true
+ * </pre>
+ */
+public class EncryptionPolicy {
+
+    /**
+     * shadedLibs で平文のまま残すパッケージ。relocate された場合に備えて libs や shaded などのパッケージも含めます。
+     */
+    static final List<String> SHADED_LIBS = Collections.unmodifiableList(Arrays.asList(
+            "kotlin.**", "kotlinx.**", "com.google.gson.**", "com.google.common.**", "com.zaxxer.hikari.**",
+            "org.slf4j.**", "org.apache.commons.**", "org.intellij.**", "org.jetbrains.**", "org.bstats.**",
+            "okhttp3.**", "okio.**", "**.shaded.**", "**.libs.**", "**.relocated.**"));
+
+    private final List<String> includes = new ArrayList<String>();
+    private final List<String> excludes = new ArrayList<String>();
+    private final List<Pattern> includePatterns = new ArrayList<Pattern>();
+    private final List<Pattern> excludePatterns = new ArrayList<Pattern>();
+    private long minSize = 0;
+    private long maxSize = Long.MAX_VALUE;
+    private boolean shadedLibs;
+
+    /**
+     * YAMLファイルから読み込みます。
+     *
+     * @throws IllegalArgumentException 読み込めない場合や不正な値がある場合
+     */
+    @SuppressWarnings("unchecked")
+    public static EncryptionPolicy load(File file) {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            Object loaded = new Yaml().load(new InputStreamReader(is, "utf-8"));
+            if (loaded == null) return policy;
+            if (!(loaded instanceof Map)) throw new IllegalArgumentException("暗号化ポリシーの形式が不正です。file=" + file);
+            Map<String, Object> map = (Map<String, Object>) loaded;
+            for (String glob : toList(map.get("include"))) policy.include(glob);
+            for (String glob : toList(map.get("exclude"))) policy.exclude(glob);
+            if (map.get("minSize") != null) policy.setMinSize(toLong(map.get("minSize")));
+            if (map.get("maxSize") != null) policy.setMaxSize(toLong(map.get("maxSize")));
+            if (map.get("shadedLibs") != null) policy.setShadedLibs(Boolean.TRUE.equals(map.get("shadedLibs")));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("暗号化ポリシーを読み込めません。file=" + file, e);
+        } finally {
+            Closer.ioClose(is);
+        }
+        return policy;
+    }
+
+    private static List<String> toList(Object value) {
+        List<String> list = new ArrayList<String>();
+        if (value instanceof Collection) {
+            for (Object o : (Collection<?>) value) list.add(String.valueOf(o));
+        } else if (value != null) {
+            list.add(String.valueOf(value));
+        }
+        return list;
+    }
+
+    private static long toLong(Object value) {
+        try {
+            return Long.parseLong(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("サイズは整数で指定してください。value=" + value);
+        }
+    }
+
+    public void include(String glob) {
+        includes.add(glob);
+        includePatterns.add(compile(glob));
+    }
+
+    public void exclude(String glob) {
+        excludes.add(glob);
+        excludePatterns.add(compile(glob));
+    }
+
+    public void setMinSize(long minSize) {
+        if (minSize < 0) throw new IllegalArgumentException("最小サイズは0以上を指定してください。minSize=" + minSize);
+        this.minSize = minSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        if (maxSize < 0) throw new IllegalArgumentException("最大サイズは0以上を指定してください。maxSize=" + maxSize);
+        this.maxSize = maxSize;
+    }
+
+    public void setShadedLibs(boolean shadedLibs) {
+        if (shadedLibs && !this.shadedLibs) {
+            for (String glob : SHADED_LIBS) excludePatterns.add(compile(glob));
+        }
+        this.shadedLibs = shadedLibs || this.shadedLibs;
+    }
+
+    /**
+     * @param entryName クラスファイルのエントリ名(com/example/Foo.class)
+     * @param size      クラスファイルのサイズ(不明な場合は負の値で、サイズでは判定しません)
+     * @return 暗号化する場合はtrue
+     */
+    public boolean isEncrypted(String entryName, long size) {
+        String className = toClassName(entryName);
+        for (Pattern pattern : excludePatterns) {
+            if (pattern.matcher(className).matches()) return false;
+        }
+        if (!includePatterns.isEmpty()) {
+            boolean included = false;
+            for (Pattern pattern : includePatterns) {
+                if (pattern.matcher(className).matches()) {
+                    included = true;
+                    break;
+                }
+            }
+            if (!included) return false;
+        }
+        return size < 0 || (size >= minSize && size <= maxSize);
+    }
+
+    /**
+     * 全てのクラスを暗号化する(従来と同じ)場合はtrue
+     */
+    public boolean isEncryptAll() {
+        return excludePatterns.isEmpty() && includePatterns.isEmpty() && minSize == 0 && maxSize == Long.MAX_VALUE;
+    }
+
+    private static String toClassName(String entryName) {
+        String name = entryName.endsWith(".class") ? entryName.substring(0, entryName.length() - 6) : entryName;
+        return name.replace('/', '.');
+    }
+
+    /**
+     * globを正規表現にします。先頭の "**." は、パッケージが無い場合にも一致します。
+     */
+    static Pattern compile(String glob) {
+        return Glob.compile(glob.trim().replace('/', '.'), '.');
+    }
+
+    @Override
+    public String toString() {
+        return "include=" + includes + ", exclude=" + excludes + ", minSize=" + minSize
+                + ", maxSize=" + maxSize + ", shadedLibs=" + shadedLibs;
+    }
+}
@@ -0,0 +1,61 @@
+package net.mctk.bcpadc;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.opengion.fukurou.util.ZipArchive;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 出力jarのエントリの圧縮方法です。
+ * 暗号化したクラスファイル(とそれをまとめたパック)と暗号化したリソースは圧縮しても小さくならないので、STOREDでそのまま格納します。
+ * それ以外のエントリは先頭を調べ、エントロピーが高いもの(圧縮済みの画像や音声など)はSTORED、
+ * 残り(plugin.ymlなどのテキスト)はDEFLATEDにします。
+ */
+public class EntryCompression implements ZipArchive.CompressionPolicy {
+
+    private static final int SAMPLE_SIZE = 4096;
+    private static final int MIN_SAMPLE_SIZE = 256;
+    /**
+     * これ以上(bit/byte)ならSTOREDにします。圧縮済みのデータは8に近くなります。
+     */
+    private static final double STORED_ENTROPY = 7.5;
+
+    private final Set<String> plainClasses;
+
+    /**
+     * @param plainClasses 暗号化していないクラスファイルのエントリ名(PluginLoaderなど)
+     */
+    public EntryCompression(Collection<String> plainClasses) {
+        this.plainClasses = new HashSet<String>(plainClasses);
+        this.plainClasses.add(JobContext.KEY_FILE);
+    }
+
+    @Override
+    public int getMethod(String entryName, byte[] data) {
+        if (entryName.endsWith(".class") && !plainClasses.contains(entryName)) return ZipArchiveEntry.STORED;
+        if (entryName.equals(JobContext.CLASS_PACK)) return ZipArchiveEntry.STORED;
+        if (entryName.startsWith(JobContext.RESOURCE_DIRECTORY)) return ZipArchiveEntry.STORED;
+        return entropy(data) >= STORED_ENTROPY ? ZipArchiveEntry.STORED : ZipArchiveEntry.DEFLATED;
+    }
+
+    /**
+     * 先頭 {@value #SAMPLE_SIZE} バイトの1バイトあたりのエントロピー(bit)。短すぎる場合は0
+     */
+    static double entropy(byte[] data) {
+        int length = Math.min(data.length, SAMPLE_SIZE);
+        if (length < MIN_SAMPLE_SIZE) return 0;
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xff]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) continue;
+            double p = (double) count / length;
+            entropy -= p * Math.log(p);
+        }
+        return entropy / Math.log(2);
+    }
+}
@@ -0,0 +1,43 @@
+package net.mctk.bcpadc;
+
+import java.util.regex.Pattern;
+
+/**
+ * 暗号化ポリシー(クラス名)とリソース(エントリ名)で共通の、globから正規表現への変換です。
+ * "*" と "?" は区切り文字をまたがず、"**" はまたいで一致します。先頭の "**" と区切り文字は、区切りが無い場合にも一致します。
+ */
+final class Glob {
+
+    private Glob() {
+    }
+
+    /**
+     * @param glob      区切り文字にそろえたglob
+     * @param separator 区切り文字(クラス名は '.'、エントリ名は '/'。正規表現の文字クラスでそのまま書ける文字)
+     */
+    static Pattern compile(String glob, char separator) {
+        String any = "[^" + separator + "]";    // '.' と '/' は文字クラスの中ではそのまま
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        if (glob.startsWith("**" + separator)) {
+            regex.append("(.*").append(Pattern.quote(String.valueOf(separator))).append(")?");
+            i = 3;
+        }
+        for (; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append(any).append('*');
+                }
+            } else if (c == '?') {
+                regex.append(any);
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
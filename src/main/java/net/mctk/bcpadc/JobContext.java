@@ -0,0 +1,184 @@
+package net.mctk.bcpadc;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import net.mctk.bcpadc.loader.CipherEngine;
+import net.mctk.bcpadc.loader.SharedRuntime;
+import org.apache.commons.io.IOUtils;
+import org.opengion.fukurou.util.Closer;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * 1つのジョブで扱うプラグインの情報です。
+ * plugin.yml と MANIFEST.MF は入力jarから1回だけ読んでパースし、
+ * 書き換えた結果は出力jarを組み立てるときに1回だけバイト列にします。
+ * 入力jarのエントリ一覧(セントラルディレクトリ)もここで保持します。
+ */
+public class JobContext {
+
+    public static final String PLUGIN_YML = "plugin.yml";
+    public static final String MANIFEST = "META-INF/MANIFEST.MF";
+    public static final String KEY_FILE = "Key.class";
+    /**
+     * 暗号化前の圧縮に使ったプリセット辞書。鍵と一緒に格納します。
+     */
+    public static final String DICTIONARY_FILE = "Key.dict";
+    /**
+     * 暗号化したクラスファイルをまとめたパック({@link net.mctk.bcpadc.loader.ClassPack})
+     */
+    public static final String CLASS_PACK = "Classes.pack";
+    /**
+     * 暗号化したクラスを定義する順番(スーパークラスとインターフェースが先)。1行に1つのエントリ名です。
+     */
+    public static final String CLASS_ORDER = "META-INF/cbpadc-order.list";
+    public static final String ENCRYPTED_MAIN_CLASS = "Encrypted-MainClass";
+    public static final String LOADER_CLASSES = "Loader-Classes";
+    /**
+     * trueの場合、PluginLoaderはクラスを要求されたときに復号化します。
+     */
+    public static final String LAZY_LOAD = "Lazy-Load";
+    /**
+     * クラスファイルの暗号方式({@link CipherEngine.Mode})。従来の aes-ecb の場合は書き込みません。
+     */
+    public static final String CIPHER_MODE = "Cipher-Mode";
+    /**
+     * 暗号化ポリシーで平文のまま残したクラスのエントリ名一覧(1行に1つ)。PluginLoaderはこれらを復号化しません。
+     */
+    public static final String PLAIN_CLASSES = "META-INF/cbpadc-plain.list";
+    /**
+     * 暗号化したリソースの元のエントリ名一覧(1行に1つ)。暗号文は {@link #RESOURCE_DIRECTORY} 以下に同じ名前で格納します。
+     */
+    public static final String ENCRYPTED_RESOURCES = "META-INF/cbpadc-resources.list";
+    public static final String RESOURCE_DIRECTORY = "META-INF/cbpadc-resources/";
+
+    private final Map<String, Object> descriptor;
+    private final Manifest manifest;
+    private final boolean hasManifest;
+    private final Map<String, ZipArchiveEntry> entries;
+    private final String mainClass;
+
+    private JobContext(Map<String, Object> descriptor, Manifest manifest, boolean hasManifest, Map<String, ZipArchiveEntry> entries) {
+        this.descriptor = descriptor;
+        this.manifest = manifest;
+        this.hasManifest = hasManifest;
+        this.entries = entries;
+        this.mainClass = (String) descriptor.get("main");
+        if (mainClass == null || mainClass.isEmpty()) throw new IllegalArgumentException("plugin.ymlにmainがありません。");
+    }
+
+    /**
+     * 入力jarのセントラルディレクトリ、plugin.yml、MANIFEST.MFを読み込みます。
+     */
+    @SuppressWarnings("unchecked")
+    public static JobContext read(ZipFile zipFile) throws IOException {
+        Map<String, ZipArchiveEntry> entries = new LinkedHashMap<String, ZipArchiveEntry>();
+        for (Enumeration<ZipArchiveEntry> e = zipFile.getEntries(); e.hasMoreElements(); ) {
+            ZipArchiveEntry entry = e.nextElement();
+            entries.put(entry.getName(), entry);
+        }
+
+        ZipArchiveEntry pluginYml = entries.get(PLUGIN_YML);
+        if (pluginYml == null) throw new FileNotFoundException(PLUGIN_YML);
+        Map<String, Object> descriptor = new Yaml().loadAs(new String(readEntry(zipFile, pluginYml), "utf-8"), Map.class);
+
+        ZipArchiveEntry manifestEntry = entries.get(MANIFEST);
+        Manifest manifest = manifestEntry != null ? new Manifest(new ByteArrayInputStream(readEntry(zipFile, manifestEntry))) : new Manifest();
+        return new JobContext(descriptor, manifest, manifestEntry != null, entries);
+    }
+
+    public static byte[] readEntry(ZipFile zipFile, ZipArchiveEntry entry) throws IOException {
+        InputStream is = zipFile.getInputStream(entry);
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            Closer.ioClose(is);
+        }
+    }
+
+    /**
+     * @return 入力jarのエントリ(セントラルディレクトリの順)
+     */
+    public Collection<ZipArchiveEntry> getEntries() {
+        return entries.values();
+    }
+
+    public boolean hasEntry(String name) {
+        return entries.containsKey(name);
+    }
+
+    public String getMainClass() {
+        return mainClass;
+    }
+
+    public String getPackageName() {
+        int index = mainClass.lastIndexOf('.');
+        return index < 0 ? "" : mainClass.substring(0, index);
+    }
+
+    public String getLoaderClass() {
+        String packageName = getPackageName();
+        return packageName.isEmpty() ? "PluginLoader" : packageName + ".PluginLoader";
+    }
+
+    /**
+     * @return 入力jarにMANIFEST.MFが無く、出力jarで追加する必要がある場合はtrue
+     */
+    public boolean isManifestMissing() {
+        return !hasManifest;
+    }
+
+    /**
+     * mainをPluginLoaderに差し替えたplugin.ymlを返します。
+     *
+     * @param sharedRuntime 共有ランタイムを使う場合はtrue(depend にランタイムを追加します)
+     */
+    @SuppressWarnings("unchecked")
+    public byte[] toPluginYml(boolean sharedRuntime) throws UnsupportedEncodingException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>(descriptor);
+        map.put("main", getLoaderClass());
+        if (sharedRuntime) {
+            List<Object> depend = new ArrayList<Object>();
+            Object current = map.get("depend");
+            if (current instanceof Collection) {
+                depend.addAll((Collection<Object>) current);
+            } else if (current != null) {
+                depend.add(current);
+            }
+            if (!depend.contains(SharedRuntime.NAME)) depend.add(0, SharedRuntime.NAME);
+            map.put("depend", depend);
+        }
+        return new Yaml().dumpAsMap(map).getBytes("utf-8");
+    }
+
+    /**
+     * 元のメインクラスを Encrypted-MainClass として、暗号化していないPluginLoaderのクラスを
+     * Loader-Classes として追加したMANIFEST.MFを返します。
+     *
+     * @param loaderEntries PluginLoaderのクラスのエントリ名
+     * @param lazy          遅延復号化する場合はtrue(Lazy-Load を追加します)
+     */
+    public byte[] toManifest(Collection<String> loaderEntries, boolean lazy, CipherEngine.Mode cipherMode) throws IOException {
+        Manifest edited = new Manifest(manifest);
+        Attributes attributes = edited.getMainAttributes();
+        if (attributes.getValue(Attributes.Name.MANIFEST_VERSION) == null) {
+            attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        }
+        attributes.putValue(ENCRYPTED_MAIN_CLASS, mainClass);
+        StringBuilder loaders = new StringBuilder();
+        for (String entry : loaderEntries) {
+            if (loaders.length() > 0) loaders.append(' ');
+            loaders.append(entry);
+        }
+        attributes.putValue(LOADER_CLASSES, loaders.toString());
+        if (lazy) attributes.putValue(LAZY_LOAD, "true");
+        if (cipherMode != CipherEngine.Mode.AES_ECB) attributes.putValue(CIPHER_MODE, cipherMode.getName());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        edited.write(out);
+        return out.toByteArray();
+    }
+}
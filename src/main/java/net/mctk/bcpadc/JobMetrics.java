@@ -0,0 +1,199 @@
+package net.mctk.bcpadc;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 1つのジョブの段階ごとの計測値です。
+ * 段階ごとに経過時間、CPU時間、確保したバイト数、入出力バイト数、エントリ数を積算します。
+ * CPU時間と確保バイト数は計測したスレッドのものなので、ワーカーで行う暗号化は
+ * ワーカー側で計測して足し込みます(経過時間もワーカーが処理に使った時間の合計になります)。
+ */
+public class JobMetrics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final File inFile;
+    private final File outFile;
+    private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+    private final long startNanos = System.nanoTime();
+    private long wallNanos;
+    private boolean success;
+
+    public JobMetrics(File inFile, File outFile) {
+        this.inFile = inFile;
+        this.outFile = outFile;
+    }
+
+    /**
+     * 計測を開始します。{@link Sample#stop} は同じスレッドで呼んでください。
+     *
+     * @param stage 段階の名前
+     */
+    public Sample start(String stage) {
+        return stage(stage).start();
+    }
+
+    /**
+     * 段階を返します。無ければ追加します(追加した順に出力されます)。
+     */
+    public synchronized Stage stage(String name) {
+        Stage stage = stages.get(name);
+        if (stage == null) {
+            stage = new Stage(name);
+            stages.put(name, stage);
+        }
+        return stage;
+    }
+
+    public synchronized List<Stage> getStages() {
+        return new ArrayList<Stage>(stages.values());
+    }
+
+    /**
+     * ジョブの終了を記録します。
+     */
+    public void finish(boolean success) {
+        this.success = success;
+        this.wallNanos = System.nanoTime() - startNanos;
+    }
+
+    public File getInFile() {
+        return inFile;
+    }
+
+    public File getOutFile() {
+        return outFile;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * 現在のスレッドのCPU時間(ns)。取得できない場合は0
+     */
+    static long currentCpuNanos() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * 現在のスレッドが確保したバイト数。HotSpot以外などで取得できない場合は0
+     */
+    static long currentAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 1つの段階の積算値。ワーカーから同時に足し込まれます。
+     */
+    public static class Stage {
+        private final String name;
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+        private long bytesIn;
+        private long bytesOut;
+        private long entries;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * この段階の計測を開始します。{@link Sample#stop} は同じスレッドで呼んでください。
+         */
+        public Sample start() {
+            return new Sample(this);
+        }
+
+        synchronized void add(long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.wallNanos += wallNanos;
+            this.cpuNanos += cpuNanos;
+            this.allocatedBytes += allocatedBytes;
+        }
+
+        /**
+         * 処理したデータ量を足し込みます。
+         */
+        public synchronized void count(long bytesIn, long bytesOut, long entries) {
+            this.bytesIn += bytesIn;
+            this.bytesOut += bytesOut;
+            this.entries += entries;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized long getWallNanos() {
+            return wallNanos;
+        }
+
+        public synchronized long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        public synchronized long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public synchronized long getBytesIn() {
+            return bytesIn;
+        }
+
+        public synchronized long getBytesOut() {
+            return bytesOut;
+        }
+
+        public synchronized long getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return 入力(入力が無い段階は出力)のバイト数を経過時間で割ったMB/s
+         */
+        public synchronized double getMegabytesPerSecond() {
+            long bytes = bytesIn > 0 ? bytesIn : bytesOut;
+            return wallNanos > 0 ? bytes / (1024.0 * 1024.0) / (wallNanos / 1e9) : 0;
+        }
+    }
+
+    /**
+     * 計測中の区間。開始時点のスレッドの値を覚えておき、終了時に差分を段階へ足し込みます。
+     */
+    public static class Sample {
+        private final Stage stage;
+        private final long wall = System.nanoTime();
+        private final long cpu = currentCpuNanos();
+        private final long allocated = currentAllocatedBytes();
+
+        Sample(Stage stage) {
+            this.stage = stage;
+        }
+
+        public void stop() {
+            stage.add(System.nanoTime() - wall, currentCpuNanos() - cpu, currentAllocatedBytes() - allocated);
+        }
+
+        public void stop(long bytesIn, long bytesOut, long entries) {
+            stop();
+            stage.count(bytesIn, bytesOut, entries);
+        }
+    }
+}
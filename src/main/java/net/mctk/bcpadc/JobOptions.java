@@ -0,0 +1,142 @@
+package net.mctk.bcpadc;
+
+import net.mctk.bcpadc.loader.CipherEngine;
+import org.kohsuke.args4j.Option;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * 1つの難読化ジョブに関するオプションです。
+ * Mainのオプションと一緒にargs4jでパースされ、バッチ実行時は全ジョブで共有されます。
+ */
+public class JobOptions {
+
+    @Option(name = "-s", usage = "stream entries from input jar to output jar without temp directory")
+    private boolean stream;
+    @Option(name = "-j", usage = "number of encryption threads (daemon mode: startup only, shared by all jobs)", metaVar = "THREADS")
+    private int threads = Runtime.getRuntime().availableProcessors();
+    @Option(name = "-verify", usage = "round-trip verification: full, off or sampled N%", metaVar = "MODE")
+    private String verifyMode = "full";
+    @Option(name = "-k", usage = "key file: loaded if it exists, otherwise a new key is written to it", metaVar = "KEYFILE")
+    private File keyFile;
+    @Option(name = "-incremental", usage = "reuse unchanged encrypted classes from the previous output (implies -s)")
+    private boolean incremental;
+    @Option(name = "-level", usage = "deflate level (0-9) for entries that are not stored, such as plugin.yml", metaVar = "LEVEL")
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    @Option(name = "-policy", usage = "YAML file of the selective encryption policy (include, exclude, minSize, maxSize, shadedLibs)", metaVar = "FILE")
+    private File policyFile;
+    @Option(name = "-include", usage = "encrypt only classes matching this package glob (repeatable, e.g. com.example.**)", metaVar = "GLOB")
+    private List<String> includes = new ArrayList<String>();
+    @Option(name = "-exclude", usage = "leave classes matching this package glob plaintext (repeatable)", metaVar = "GLOB")
+    private List<String> excludes = new ArrayList<String>();
+    @Option(name = "-min-size", usage = "leave classes smaller than this many bytes plaintext", metaVar = "BYTES")
+    private long minSize = -1;
+    @Option(name = "-max-size", usage = "leave classes larger than this many bytes plaintext", metaVar = "BYTES")
+    private long maxSize = -1;
+    @Option(name = "-plain-libs", usage = "leave well-known shaded libraries (gson, kotlin, hikari, *.libs.*, ...) plaintext")
+    private boolean plainLibs;
+    @Option(name = "-compress", usage = "deflate classes before encryption with a preset dictionary trained on the jar's own classes")
+    private boolean compressClasses;
+    @Option(name = "-pack", usage = "store all encrypted classes in one uncompressed, indexed container entry")
+    private boolean pack;
+    @Option(name = "-lazy", usage = "let the loader decrypt and define each class only when it is first requested")
+    private boolean lazy;
+    @Option(name = "-cipher", usage = "cipher for classes: aes-ecb (legacy), aes-ctr, aes-gcm or chacha20 (Java 11+ on build and server)", metaVar = "MODE")
+    private String cipher = CipherEngine.Mode.AES_ECB.getName();
+    @Option(name = "-encrypt-resources", usage = "also encrypt non-class entries matching this path glob (repeatable, e.g. lang/**, **/*.schem); the loader decrypts them while they are read. plugin.yml and config.yml are never encrypted", metaVar = "GLOB")
+    private List<String> resourceGlobs = new ArrayList<String>();
+    @Option(name = "-shared-runtime", usage = "embed a thin stub that delegates decryption to the shared runtime plugin (see -runtime-jar)")
+    private boolean sharedRuntime;
+
+    private EncryptionPolicy policy;
+
+    /**
+     * オプションの組み合わせを検証します。
+     *
+     * @throws IllegalArgumentException 不正な値がある場合
+     */
+    public void validate() {
+        if (threads < 1) throw new IllegalArgumentException("スレッド数は1以上を指定してください。threads=" + threads);
+        RoundTripVerifier.parse(verifyMode);
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("圧縮レベルは0から9で指定してください。level=" + level);
+        }
+        if (pack && incremental) throw new IllegalArgumentException("-pack と -incremental は同時に指定できません。");
+        CipherEngine.Mode mode = CipherEngine.Mode.parse(cipher);
+        if (!mode.isSupported()) {
+            throw new IllegalArgumentException("このJavaでは暗号方式 " + mode + " を使えません。java.version=" + System.getProperty("java.version"));
+        }
+        policy = createPolicy();
+    }
+
+    /**
+     * ポリシーファイルを読み込み、コマンドラインで指定したパターンを追加し、サイズを上書きします。
+     */
+    private EncryptionPolicy createPolicy() {
+        EncryptionPolicy created = policyFile != null ? EncryptionPolicy.load(policyFile) : new EncryptionPolicy();
+        for (String glob : includes) created.include(glob);
+        for (String glob : excludes) created.exclude(glob);
+        if (minSize >= 0) created.setMinSize(minSize);
+        if (maxSize >= 0) created.setMaxSize(maxSize);
+        if (plainLibs) created.setShadedLibs(true);
+        return created;
+    }
+
+    public boolean isStream() {
+        return stream || incremental;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public RoundTripVerifier newVerifier() {
+        return RoundTripVerifier.parse(verifyMode);
+    }
+
+    public File getKeyFile() {
+        return keyFile;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public EncryptionPolicy getEncryptionPolicy() {
+        if (policy == null) policy = createPolicy();
+        return policy;
+    }
+
+    public boolean isCompressClasses() {
+        return compressClasses;
+    }
+
+    public boolean isPack() {
+        return pack;
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    public ResourcePolicy getResourcePolicy() {
+        ResourcePolicy resourcePolicy = new ResourcePolicy();
+        for (String glob : resourceGlobs) resourcePolicy.include(glob);
+        return resourcePolicy;
+    }
+
+    public boolean isSharedRuntime() {
+        return sharedRuntime;
+    }
+
+    public CipherEngine.Mode getCipherMode() {
+        return CipherEngine.Mode.parse(cipher);
+    }
+}
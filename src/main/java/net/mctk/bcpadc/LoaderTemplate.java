@@ -0,0 +1,155 @@
+package net.mctk.bcpadc;
+
+import org.apache.commons.io.IOUtils;
+import org.opengion.fukurou.util.Closer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ビルド時にコンパイルしておいたPluginLoaderのテンプレートです。
+ * テンプレートは net.mctk.bcpadc.loader パッケージでコンパイルされ、jarの loader/ 以下に入っています。
+ * 難読化のたびにjavacを呼ぶ代わりに、定数プールを書き換えて対象プラグインのパッケージへ移します。
+ */
+public final class LoaderTemplate {
+
+    /**
+     * テンプレートのパッケージ(内部形式)
+     */
+    public static final String TEMPLATE_PACKAGE = "net/mctk/bcpadc/loader/";
+    /**
+     * 共有ランタイムのパッケージ(内部形式)。ランタイムのjarとスタブの参照先です。
+     */
+    public static final String RUNTIME_PACKAGE = "net/mctk/bcpadc/runtime/";
+
+    /**
+     * jarに埋め込むPluginLoaderのクラス(スタブ以外)
+     */
+    private static final String LOADER = "PluginLoader";
+    /**
+     * 共有ランタイムを使う場合に埋め込むスタブ(PluginLoaderに名前を変えます)
+     */
+    private static final String STUB = "PluginStub";
+    /**
+     * 共有ランタイムのプラグイン本体(ランタイムのjarにだけ入れます)
+     */
+    private static final String RUNTIME = "DecryptRuntime";
+    /**
+     * 暗号化したリソースを読む呼び出しの置き換え先
+     */
+    private static final String RESOURCES = "EncryptedResources";
+
+    private static final String RESOURCE_DIR = "loader/";
+    private static final String INDEX = RESOURCE_DIR + "classes.list";
+
+    private static Map<String, byte[]> template;
+
+    private LoaderTemplate() {
+    }
+
+    /**
+     * テンプレートを指定パッケージへ移したクラスファイルを返します。スタブと共有ランタイムのクラスは含みません。
+     *
+     * @param packageName 移動先のパッケージ(例: com.example.foo)
+     * @return jarのエントリ名とクラスファイルのマップ
+     * @throws IOException テンプレートが見つからない場合
+     */
+    public static Map<String, byte[]> relocate(String packageName) throws IOException {
+        String to = toInternal(packageName);
+        Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> entry : getTemplate().entrySet()) {
+            String simpleName = entry.getKey().substring(TEMPLATE_PACKAGE.length());
+            if (simpleName.startsWith(STUB) || simpleName.startsWith(RUNTIME)) continue;
+            classes.put(to + simpleName, ClassRelocator.relocate(entry.getValue(), TEMPLATE_PACKAGE, to));
+        }
+        return classes;
+    }
+
+    /**
+     * 共有ランタイムに処理を任せるスタブを、指定パッケージの PluginLoader として返します。
+     * スタブが参照するランタイムのクラスは {@link #RUNTIME_PACKAGE} を指すように書き換えます。
+     *
+     * @param packageName 移動先のパッケージ(例: com.example.foo)
+     * @return jarのエントリ名とクラスファイルのマップ
+     * @throws IOException テンプレートが見つからない場合
+     */
+    public static Map<String, byte[]> relocateStub(String packageName) throws IOException {
+        String to = toInternal(packageName);
+        Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> entry : getTemplate().entrySet()) {
+            String simpleName = entry.getKey().substring(TEMPLATE_PACKAGE.length());
+            if (!simpleName.startsWith(STUB)) continue;
+            byte[] classFile = ClassRelocator.relocate(entry.getValue(), TEMPLATE_PACKAGE + STUB, to + LOADER);
+            classes.put(to + LOADER + simpleName.substring(STUB.length()),
+                    ClassRelocator.relocate(classFile, TEMPLATE_PACKAGE, RUNTIME_PACKAGE));
+        }
+        return classes;
+    }
+
+    /**
+     * 共有ランタイムのjarに入れるクラス(PluginLoaderとスタブ以外)を {@link #RUNTIME_PACKAGE} へ移して返します。
+     *
+     * @return jarのエントリ名とクラスファイルのマップ
+     * @throws IOException テンプレートが見つからない場合
+     */
+    public static Map<String, byte[]> relocateRuntime() throws IOException {
+        Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+        for (Map.Entry<String, byte[]> entry : getTemplate().entrySet()) {
+            String simpleName = entry.getKey().substring(TEMPLATE_PACKAGE.length());
+            if (simpleName.startsWith(LOADER) || simpleName.startsWith(STUB)) continue;
+            classes.put(RUNTIME_PACKAGE + simpleName, ClassRelocator.relocate(entry.getValue(), TEMPLATE_PACKAGE, RUNTIME_PACKAGE));
+        }
+        return classes;
+    }
+
+    /**
+     * @return ランタイムのプラグイン本体のクラス名(plugin.yml の main)
+     */
+    public static String getRuntimeMainClass() {
+        return (RUNTIME_PACKAGE + RUNTIME).replace('/', '.');
+    }
+
+    /**
+     * @param packageName   PluginLoaderのパッケージ(例: com.example.foo)
+     * @param sharedRuntime 共有ランタイムを使う場合はtrue
+     * @return 暗号化したリソースを読むクラス(内部形式)
+     */
+    public static String getResourcesClass(String packageName, boolean sharedRuntime) {
+        return (sharedRuntime ? RUNTIME_PACKAGE : toInternal(packageName)) + RESOURCES;
+    }
+
+    private static String toInternal(String packageName) {
+        return packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/";
+    }
+
+    /**
+     * テンプレートのクラスファイルを読み込みます。一度読んだらプロセス内で使い回します。
+     */
+    private static synchronized Map<String, byte[]> getTemplate() throws IOException {
+        if (template != null) return template;
+
+        Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+        for (String line : IOUtils.readLines(new StringReader(new String(readResource(INDEX), "utf-8")))) {
+            String name = line.trim();
+            if (name.isEmpty()) continue;
+            classes.put(name, readResource(RESOURCE_DIR + name));
+        }
+        template = Collections.unmodifiableMap(classes);
+        return template;
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        InputStream is = LoaderTemplate.class.getClassLoader().getResourceAsStream(name);
+        if (is == null) throw new FileNotFoundException("PluginLoaderのテンプレートが見つかりません。resource=" + name);
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            Closer.ioClose(is);
+        }
+    }
+}
@@ -1,331 +1,243 @@
 package net.mctk.bcpadc;
 
-import com.sun.istack.internal.NotNull;
+import net.mctk.bcpadc.loader.LoaderLog;
 import org.apache.commons.io.FileUtils;
+import org.kohsuke.args4j.ClassParser;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
-import org.opengion.fukurou.util.ZipArchive;
-import org.yaml.snakeyaml.Yaml;
 
-import javax.crypto.*;
-import javax.tools.JavaCompiler;
-import javax.tools.JavaFileObject;
-import javax.tools.SimpleJavaFileObject;
-import javax.tools.ToolProvider;
-import java.io.*;
-import java.net.URI;
-import java.security.InvalidKeyException;
-import java.security.Key;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Created by 2016/07/29.
  */
 public class Main {
 
-    @Option(name = "-i", usage = "input from this file", metaVar = "INPUT", required = true)
+    @Option(name = "-i", usage = "input from this file", metaVar = "INPUT")
     private File inFile;
-    @Option(name = "-o", usage = "output to this file", metaVar = "OUTPUT", required = true)
+    @Option(name = "-o", usage = "output to this file", metaVar = "OUTPUT")
     private File outFile;
-    @Option(name = "-b", usage = "Bukkit lib", required = true)
+    @Option(name = "-b", usage = "Bukkit lib (unused: PluginLoader is precompiled)")
     private File bukkitFile;
-
-    private Key key;
+    @Option(name = "-batch", usage = "batch mode: directory of jars or text file listing one jar per line", metaVar = "DIR|LIST", forbids = {"-i", "-o"}, depends = {"-od"})
+    private File batch;
+    @Option(name = "-od", usage = "output directory for batch and watch mode", metaVar = "OUTDIR")
+    private File outDir;
+    @Option(name = "-jobs", usage = "number of jars processed at once in batch and daemon mode", metaVar = "JOBS")
+    private int jobs = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    @Option(name = "-daemon", usage = "daemon mode: keep the JVM warm and read one job per line from stdin", forbids = {"-i", "-o", "-batch"})
+    private boolean daemon;
+    @Option(name = "-port", usage = "daemon mode: read jobs from a socket on the loopback address", metaVar = "PORT", forbids = {"-i", "-o", "-batch"})
+    private int port;
+    @Option(name = "-watch", usage = "daemon mode: obfuscate jars dropped into this directory", metaVar = "DIR", forbids = {"-i", "-o", "-batch"}, depends = {"-od"})
+    private File watchDir;
+    @Option(name = "-metrics", usage = "write per-stage metrics of the jobs to this JSON file (not in daemon mode)", metaVar = "FILE", forbids = {"-daemon", "-port", "-watch"})
+    private File metricsFile;
+    @Option(name = "-prometheus", usage = "write per-stage metrics of the jobs in Prometheus text format (not in daemon mode)", metaVar = "FILE", forbids = {"-daemon", "-port", "-watch"})
+    private File prometheusFile;
+    @Option(name = "-log", usage = "log level: error, warn, info, debug or trace (default: info)", metaVar = "LEVEL")
+    private String logLevel;
+    @Option(name = "-cipher-bench", usage = "show whether AES intrinsics are on and run the JMH cipher benchmark (needs JMH on the classpath)")
+    private boolean cipherBench;
+    @Option(name = "-runtime-jar", usage = "write the shared runtime plugin used by jars obfuscated with -shared-runtime", metaVar = "FILE")
+    private File runtimeJar;
+
+    private final JobOptions options = new JobOptions();
+    private final List<JobMetrics> metrics = Collections.synchronizedList(new ArrayList<JobMetrics>());
 
     public static void main(String... args) {
-        new Main().start(args);
+        if (!new Main().start(args)) System.exit(1);
     }
 
-    private void start(String... args) {
+    private boolean start(String... args) {
         CmdLineParser parser = new CmdLineParser(this);
+        new ClassParser().parse(options, parser);
         try {
             parser.parseArgument(args);
+            if (!isDaemon() && batch == null && !((cipherBench || runtimeJar != null) && inFile == null && outFile == null) && (inFile == null || outFile == null)) {
+                throw new IllegalArgumentException("-i と -o、または -batch と -od を指定してください。");
+            }
+            options.validate();
+            if (watchDir != null && Daemon.isSameOrUnder(outDir, watchDir)) {
+                throw new IllegalArgumentException("-od に -watch のディレクトリやその中のディレクトリは指定できません。");
+            }
+            LoaderLog.setDefaultLevel(LoaderLog.Level.INFO);
+            if (logLevel != null) LoaderLog.setLevel(LoaderLog.parse(logLevel));
         } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
             parser.printUsage(System.err);
-            return;
-        }
-        key = generationKey();
-        ArrayList<File> files = new ArrayList<File>();
-        unzipJar();
-        FileUtil.listf(new File(FileUtils.getTempDirectory(), "cbpadc"), files);
-        for (File f : files) {
-            if (f.getName().endsWith(".class")) encrypt(f);
-        }
-        editManifest();
-        addKeyFile(key);
-//        addLoader();
-        addLoader(getPackageName(getMainClass()), new File(new File(FileUtils.getTempDirectory(), "cbpadc"), mainClassNameToPath(getMainClass())), bukkitFile);
-        editPluginYML();
-        rezipJar();
-        deleteTmpDir();
-    }
-
-    private void encrypt(File file) {
-        byte[] inByte = null;
-        try {
-            System.out.println(file.getAbsolutePath() + "を暗号化中");
-            inByte = FileUtils.readFileToByteArray(file);
-
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            byte[] encrypted = cipher.doFinal(inByte);
-
-            FileUtils.writeByteArrayToFile(file, encrypted);
-            decryptTest(file, key, inByte);
-//            decrypt(inByte, key);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        }
-    }
-
-    @NotNull
-    private String getPackageName(String className) {
-        StringBuilder path = new StringBuilder();
-        String[] arrayStr = className.split("\\.");
-        for (int i = 0; i < arrayStr.length - 1; i++) {
-            if (i != 0) path.append(".");
-            path.append(arrayStr[i]);
-        }
-
-        return path.toString();
-    }
-
-    @NotNull
-    private String mainClassNameToPath(String mainClassName) {
-        StringBuilder path = new StringBuilder();
-        String[] arrayStr = mainClassName.split(".");
-        for (int i = 0; i < arrayStr.length - 1; i++) {
-            if (i != 0) path.append(File.pathSeparator);
-            path.append(arrayStr[i]);
+            return false;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+            return false;
         }
 
-//        if (path.toString().equals("")) throw new IllegalArgumentException("メインクラス名が渡されていません。");
-        return path.toString();
-    }
-
-    private String getMainClass() {
-        Yaml yaml = new Yaml();
-
-        File pluginYml = new File(new File(FileUtils.getTempDirectory(), "cbpadc"), "plugin.yml");
-
-        Map map = null;
+        if (cipherBench) CipherBenchLauncher.run(System.out);
+        if (runtimeJar != null && !writeRuntimeJar()) return false;
+        if ((cipherBench || runtimeJar != null) && !isDaemon() && batch == null && inFile == null) return true;
+        ExecutorService executor = ClassEncryptor.newExecutor(options.getThreads());
         try {
-            FileInputStream fileInputStream = new FileInputStream(pluginYml);
-            map = yaml.loadAs(fileInputStream, Map.class);
-            fileInputStream.close();
-            return (String) map.get("main");
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (isDaemon()) return runDaemon(executor);
+            boolean success = batch == null ? newJob(inFile, outFile, executor).run() : runBatch(executor);
+            return writeMetrics() && success;
+        } finally {
+            executor.shutdown();
+            LoaderLog.close();
         }
-        return null;
     }
 
-    private void addKeyFile(Key key) {
+    /**
+     * 共有ランタイムのプラグインjarを書き出します。
+     */
+    private boolean writeRuntimeJar() {
         try {
-            FileOutputStream fileOutputStream = new FileOutputStream(new File(new File(FileUtils.getTempDirectory(), "cbpadc"), "Key.class"));
-            ObjectOutputStream objectOutputStream = new ObjectOutputStream(fileOutputStream);
-            objectOutputStream.writeObject(key);
-            objectOutputStream.close();
-            fileOutputStream.close();
+            String version = Main.class.getPackage() != null ? Main.class.getPackage().getImplementationVersion() : null;
+            RuntimeJar.write(runtimeJar, version != null ? version : "1.0");
+            System.out.println("共有ランタイム: " + runtimeJar);
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
     }
 
-    private void editPluginYML() {
-        Yaml yaml = new Yaml();
+    /**
+     * 指定されていれば、実行したジョブの計測値を書き出します。
+     */
+    private boolean writeMetrics() {
         try {
-            String str = FileUtils.readFileToString(new File(new File(FileUtils.getTempDirectory(), "cbpadc"), "plugin.yml"), "utf-8");
-            Map map = yaml.loadAs(str, Map.class);
-            map.put("main", getPackageName(getMainClass()) + ".PluginLoader");
-            str = yaml.dumpAsMap(map);
-            FileUtils.writeStringToFile(new File(new File(FileUtils.getTempDirectory(), "cbpadc"), "plugin.yml"), str, "utf-8");
+            if (metricsFile != null) MetricsReport.writeJson(metrics, metricsFile);
+            if (prometheusFile != null) MetricsReport.writePrometheus(metrics, prometheusFile);
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
-
     }
 
-    private void editManifest() {
-        File manifest = new File(new File(new File(FileUtils.getTempDirectory(), "cbpadc"), "META-INF"), "MANIFEST.MF");    // TODO 最適化
-        try {
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append("Encrypted-MainClass: ");
-            stringBuilder.append(getMainClass());
-            stringBuilder.append("\n");
-            StringBuilder manifestStr = new StringBuilder(FileUtils.readFileToString(manifest, "utf-8"));
-            manifestStr.delete(manifestStr.length() - 2, manifestStr.length());   // WindowsOnly
-            manifestStr.append(stringBuilder);
-//            FileUtils.write(manifest, manifestStr.toString(), "utf-8", false);
-            FileUtils.writeStringToFile(manifest, manifestStr.toString(), "utf-8");
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private boolean isDaemon() {
+        return daemon || port > 0 || watchDir != null;
     }
 
-    private void addLoader() {
-        InputStream inputStream = ClassLoader.getSystemResourceAsStream("PluginLoader");
+    /**
+     * JVMを起動したままジョブを受け付けます。標準入力かソケットで quit を受け取るまで戻りません。
+     * 監視ディレクトリだけの場合はプロセスが終了されるまで動き続けます。
+     */
+    private boolean runDaemon(ExecutorService executor) {
+        Daemon server = new Daemon(options, executor, jobs);
+        server.warmUp();
         try {
-            FileOutputStream fileOutputStream = new FileOutputStream(new File(new File(FileUtils.getTempDirectory(), "cbpadc"), "PluginLoader.class"));
-
-            byte[] buffer = new byte[1024]; // Adjust if you want
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                fileOutputStream.write(buffer, 0, bytesRead);
+            if (watchDir != null) server.watch(watchDir, outDir);
+            if (port > 0) {
+                server.serveSocket(port);
+            } else if (daemon) {
+                server.serveStdin();
+            } else {
+                new CountDownLatch(1).await();
             }
-            fileOutputStream.close();
-            inputStream.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            return true;
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } finally {
+            server.shutdown();
         }
     }
 
-    private void addLoader(String packageName, File target, File bukkitJar) {
-        try {
-            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-            String pluginLoaderJava = FileUtils.readFileToString(new File(ClassLoader.getSystemResource("PluginLoader.java").getFile()), "utf-8");
-            JavaFileObject file = new JavaSourceFromString("PluginLoader", pluginLoaderJava.replace("{{package}}", "package " + packageName + ";"));
-
-            String[] compileOptions = new String[]{"-d", target.getAbsolutePath(), "-classpath", bukkitJar.getAbsolutePath()};
-            Iterable<String> compilationOption = Arrays.asList(compileOptions);
-            Iterable<? extends JavaFileObject> compilationUnits = Arrays.asList(file);
-//            compiler.getStandardFileManager()
-            JavaCompiler.CompilationTask task = compiler.getTask(
-                    null,
-                    null,
-                    null,
-                    compilationOption,
-                    null,
-                    compilationUnits);
-
-            task.call();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void rezipJar() {
-        ZipArchive.compress(new File(FileUtils.getTempDirectory(), "cbpadc"), outFile);
+    private ObfuscationJob newJob(File in, File out, ExecutorService executor) {
+        ObfuscationJob job = new ObfuscationJob(in, out, options, executor);
+        metrics.add(job.getMetrics());
+        return job;
     }
 
-    private List<File> unzipJar() {
-        List<File> retList = new ArrayList<File>();
+    /**
+     * 複数のjarを同じJVMで並行して難読化します。同時に処理するjarは -jobs 個までです。
+     * 暗号化のワーカーは全ジョブで共有します。
+     */
+    private boolean runBatch(ExecutorService executor) {
+        List<File> jars;
         try {
-            retList = ZipUtil.unZip(inFile, new File(FileUtils.getTempDirectory(), "cbpadc"), "utf-8");
+            jars = listBatchJars(batch);
         } catch (IOException e) {
             e.printStackTrace();
+            return false;
         }
-        return retList;
-    }
-
-    private void deleteTmpDir() {
-        try {
-            FileUtils.deleteDirectory(new File(FileUtils.getTempDirectory(), "cbpadc"));
-        } catch (IOException e) {
-            e.printStackTrace();
+        Set<String> names = new HashSet<String>();
+        for (File jar : jars) {
+            if (!names.add(jar.getName())) {
+                System.err.println("同じ名前のjarは同じ出力先になるため、一緒に処理できません。jar=" + jar);
+                return false;
+            }
         }
-    }
-
-    private Key generationKey() {
-        try {
-            KeyGenerator generator = KeyGenerator.getInstance("AES");
-            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
-            generator.init(128, random);
-            return generator.generateKey();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        if (!outDir.exists() && !outDir.mkdirs()) {
+            System.err.println("出力ディレクトリを作成できません。dir=" + outDir);
+            return false;
         }
-    }
 
-    // テスト用
-    private void decrypt(byte[] bytes, Key key) {
-        byte[] inByte = null;
+        ExecutorService jobExecutor = Executors.newFixedThreadPool(jobs);
+        Map<File, Future<Boolean>> results = new LinkedHashMap<File, Future<Boolean>>();
         try {
-            inByte = FileUtils.readFileToByteArray(outFile);
-
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.DECRYPT_MODE, key);
-            inByte = cipher.doFinal(inByte);
-
-            FileUtils.writeByteArrayToFile(new File(outFile.getPath() + "1"), inByte);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void decryptTest(File file, Key key, byte[] orig) {
-        try {
-            byte[] inBytes = FileUtils.readFileToByteArray(file);
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.DECRYPT_MODE, key);
-
-            byte[] decrypted = cipher.doFinal(inBytes);
-            if (!Arrays.equals(decrypted, orig)) System.out.println("復号化テストに失敗: " + file.getAbsolutePath());
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        }
-    }
-
-    class JavaSourceFromString extends SimpleJavaFileObject {
-
-        final String code;
-
-        JavaSourceFromString(String name, String code) {
-            super(URI.create("string:///" + name.replace('.', '/') +
-                    Kind.SOURCE.extension), Kind.SOURCE);
-            this.code = code;
-        }
+            for (File jar : jars) {
+                final ObfuscationJob job = newJob(jar, new File(outDir, jar.getName()), executor);
+                results.put(jar, jobExecutor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return job.run();
+                    }
+                }));
+            }
 
-        @Override
-        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
-            return code;
+            int failures = 0;
+            for (Map.Entry<File, Future<Boolean>> result : results.entrySet()) {
+                boolean success;
+                try {
+                    success = result.getValue().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    success = false;
+                }
+                if (!success) {
+                    failures++;
+                    System.err.println("難読化に失敗: " + result.getKey());
+                }
+            }
+            System.out.println("バッチ: " + jars.size() + "件中 " + (jars.size() - failures) + "件成功");
+            return failures == 0;
+        } finally {
+            jobExecutor.shutdown();
+        }
+    }
+
+    private List<File> listBatchJars(File batch) throws IOException {
+        List<File> jars = new ArrayList<File>();
+        if (batch.isDirectory()) {
+            File[] files = batch.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() && file.getName().endsWith(".jar");
+                }
+            });
+            if (files != null) jars.addAll(Arrays.asList(files));
+            Collections.sort(jars);
+        } else {
+            for (String line : FileUtils.readLines(batch, "utf-8")) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                jars.add(new File(line));
+            }
         }
-
+        return jars;
     }
 }
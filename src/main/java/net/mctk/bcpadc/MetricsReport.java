@@ -0,0 +1,154 @@
+package net.mctk.bcpadc;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * ジョブの計測値をJSONとPrometheusのテキスト形式で書き出します。
+ * CIで難読化のコストをプラグインごとに追えるように、1回の実行(バッチなら全ジョブ)を1ファイルにまとめます。
+ */
+public final class MetricsReport {
+
+    private static final String[][] STAGE_METRICS = {
+            {"cbpadc_stage_wall_seconds", "Wall time per stage (sum over workers for encrypt)"},
+            {"cbpadc_stage_cpu_seconds", "Thread CPU time per stage"},
+            {"cbpadc_stage_allocated_bytes", "Bytes allocated per stage"},
+            {"cbpadc_stage_bytes_in", "Bytes read per stage"},
+            {"cbpadc_stage_bytes_out", "Bytes written per stage"},
+            {"cbpadc_stage_entries", "Entries processed per stage"},
+            {"cbpadc_stage_megabytes_per_second", "Throughput per stage"},
+    };
+
+    private MetricsReport() {
+    }
+
+    public static void writeJson(List<JobMetrics> jobs, File file) throws IOException {
+        FileUtils.writeStringToFile(file, toJson(jobs), "utf-8");
+    }
+
+    public static void writePrometheus(List<JobMetrics> jobs, File file) throws IOException {
+        FileUtils.writeStringToFile(file, toPrometheus(jobs), "utf-8");
+    }
+
+    static String toJson(List<JobMetrics> jobs) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"jobs\": [");
+        for (int i = 0; i < jobs.size(); i++) {
+            JobMetrics job = jobs.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\n");
+            sb.append("      \"input\": ").append(jsonString(job.getInFile().getPath())).append(",\n");
+            sb.append("      \"output\": ").append(jsonString(job.getOutFile().getPath())).append(",\n");
+            sb.append("      \"success\": ").append(job.isSuccess()).append(",\n");
+            sb.append("      \"wallSeconds\": ").append(seconds(job.getWallNanos())).append(",\n");
+            sb.append("      \"stages\": [");
+            List<JobMetrics.Stage> stages = job.getStages();
+            for (int j = 0; j < stages.size(); j++) {
+                JobMetrics.Stage stage = stages.get(j);
+                sb.append(j == 0 ? "\n" : ",\n");
+                sb.append("        {\"name\": ").append(jsonString(stage.getName()))
+                        .append(", \"wallSeconds\": ").append(seconds(stage.getWallNanos()))
+                        .append(", \"cpuSeconds\": ").append(seconds(stage.getCpuNanos()))
+                        .append(", \"allocatedBytes\": ").append(stage.getAllocatedBytes())
+                        .append(", \"bytesIn\": ").append(stage.getBytesIn())
+                        .append(", \"bytesOut\": ").append(stage.getBytesOut())
+                        .append(", \"entries\": ").append(stage.getEntries())
+                        .append(", \"megabytesPerSecond\": ").append(decimal(stage.getMegabytesPerSecond()))
+                        .append("}");
+            }
+            sb.append(stages.isEmpty() ? "]\n" : "\n      ]\n");
+            sb.append("    }");
+        }
+        sb.append(jobs.isEmpty() ? "]\n" : "\n  ]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    static String toPrometheus(List<JobMetrics> jobs) {
+        StringBuilder sb = new StringBuilder();
+        header(sb, "cbpadc_job_wall_seconds", "Wall time per job");
+        for (JobMetrics job : jobs) {
+            sb.append("cbpadc_job_wall_seconds{jar=").append(label(job)).append("} ").append(seconds(job.getWallNanos())).append('\n');
+        }
+        header(sb, "cbpadc_job_success", "1 if the job succeeded");
+        for (JobMetrics job : jobs) {
+            sb.append("cbpadc_job_success{jar=").append(label(job)).append("} ").append(job.isSuccess() ? 1 : 0).append('\n');
+        }
+        for (int m = 0; m < STAGE_METRICS.length; m++) {
+            String name = STAGE_METRICS[m][0];
+            header(sb, name, STAGE_METRICS[m][1]);
+            for (JobMetrics job : jobs) {
+                for (JobMetrics.Stage stage : job.getStages()) {
+                    sb.append(name).append("{jar=").append(label(job))
+                            .append(",stage=").append(quote(stage.getName())).append("} ")
+                            .append(stageValue(stage, m)).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String stageValue(JobMetrics.Stage stage, int metric) {
+        switch (metric) {
+            case 0:
+                return seconds(stage.getWallNanos());
+            case 1:
+                return seconds(stage.getCpuNanos());
+            case 2:
+                return String.valueOf(stage.getAllocatedBytes());
+            case 3:
+                return String.valueOf(stage.getBytesIn());
+            case 4:
+                return String.valueOf(stage.getBytesOut());
+            case 5:
+                return String.valueOf(stage.getEntries());
+            default:
+                return decimal(stage.getMegabytesPerSecond());
+        }
+    }
+
+    private static void header(StringBuilder sb, String name, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+    }
+
+    /**
+     * バッチでは別のディレクトリにある同じ名前のjarもあるので、ファイル名ではなくパスにします。
+     */
+    private static String label(JobMetrics job) {
+        return quote(job.getInFile().getPath());
+    }
+
+    /**
+     * Prometheusのラベル値としてエスケープします。
+     */
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static String seconds(long nanos) {
+        return decimal(nanos / 1e9);
+    }
+
+    private static String decimal(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+}
@@ -0,0 +1,866 @@
+package net.mctk.bcpadc;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import net.mctk.bcpadc.loader.CipherEngine;
+import net.mctk.bcpadc.loader.ClassPack;
+import net.mctk.bcpadc.loader.LoaderLog;
+import org.opengion.fukurou.util.Closer;
+import org.opengion.fukurou.util.ZipArchive;
+
+import javax.crypto.KeyGenerator;
+import java.io.*;
+import java.math.BigInteger;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * 1つのプラグインjarを難読化するジョブです。
+ * 一時ディレクトリを使う場合もジョブごとに専用の作業ディレクトリを作るので、
+ * 同じJVM内や別プロセスで複数のジョブを同時に実行できます。
+ * 段階ごとの処理時間などは {@link JobMetrics} に記録します。
+ */
+public class ObfuscationJob {
+
+    private final File inFile;
+    private final File outFile;
+    private final JobOptions options;
+    private final ExecutorService executor;
+    private final RoundTripVerifier verifier;
+    private final JobMetrics metrics;
+
+    private static final String INDEX_FORMAT_KEY = "cbpadc.format";
+    /**
+     * 差分インデックスで、クラスのスーパークラスとインターフェースを保存するキーの接頭辞
+     */
+    private static final String INDEX_SUPERTYPES_PREFIX = "cbpadc.supertypes.";
+
+    private Key key;
+    private ClassEncryptor encryptor;
+    private JobContext context;
+    private Map<String, byte[]> loaders;
+    private Set<String> plainClasses;
+    private Map<String, byte[]> packageInfos;
+    private Set<String> encryptedResources;
+    private ResourceCallRewriter rewriter;
+    /**
+     * リソースを読む呼び出しを置き換える場合の、入力jarのクラスの継承関係
+     */
+    private Map<String, List<String>> hierarchy;
+    private ClassEncryptor resourceEncryptor;
+    private byte[] dictionary;
+    private SortedMap<String, byte[]> pack;
+    private final Map<String, List<String>> supertypes = new HashMap<String, List<String>>();
+    private EntryCompression compression;
+    private File workDir;
+    private boolean failed;
+
+    /**
+     * @param inFile   入力jar
+     * @param outFile  出力jar
+     * @param options  ジョブのオプション
+     * @param executor 暗号化に使うワーカー(ジョブ間で共有できます)
+     */
+    public ObfuscationJob(File inFile, File outFile, JobOptions options, ExecutorService executor) {
+        this.inFile = inFile;
+        this.outFile = outFile;
+        this.options = options;
+        this.executor = executor;
+        this.verifier = options.newVerifier();
+        this.metrics = new JobMetrics(inFile, outFile);
+    }
+
+    /**
+     * 難読化を実行します。
+     *
+     * @return 途中でエラーが無く、検証にも成功した場合はtrue
+     */
+    public boolean run() {
+        boolean success = runStages();
+        metrics.finish(success);
+        logSummary();
+        return success;
+    }
+
+    /**
+     * クラスごとではなく、ジョブごと(DEBUGでは段階ごと)にまとめて出力します。
+     */
+    private void logSummary() {
+        JobMetrics.Stage encrypt = metrics.stage("encrypt");
+        LoaderLog.info(inFile.getName() + ": クラス" + encrypt.getEntries() + "件を暗号化"
+                + (plainClasses != null && !plainClasses.isEmpty() ? ", " + plainClasses.size() + "件は平文" : "")
+                + (rewriter != null ? ", リソース" + encryptedResources.size() + "件を暗号化(呼び出し" + rewriter.getRewritten() + "箇所を置換)" : "")
+                + " (" + metrics.getWallNanos() / 1000000 + "ms)");
+        if (!LoaderLog.isDebug()) return;
+        LoaderLog.debug("  policy: " + options.getEncryptionPolicy());
+        for (JobMetrics.Stage stage : metrics.getStages()) {
+            LoaderLog.debug("  " + stage.getName() + ": " + stage.getEntries() + "件 " + stage.getWallNanos() / 1000000 + "ms");
+        }
+    }
+
+    private boolean runStages() {
+        JobMetrics.Sample sample = metrics.start("key");
+        try {
+            key = loadKey();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        sample.stop();
+        ZipFile zipFile = null;
+        try {
+            sample = metrics.start("read");
+            zipFile = new ZipFile(inFile, "utf-8");
+            context = JobContext.read(zipFile);
+            sample.stop(inFile.length(), 0, context.getEntries().size());
+            sample = metrics.start("loader");
+            loaders = relocateLoader();
+            sample.stop();
+            plainClasses = selectPlainClasses();
+            packageInfos = createPackageInfos();
+            plainClasses.addAll(packageInfos.keySet());
+            encryptedResources = selectResources();
+            if (!encryptedResources.isEmpty()) {
+                // リソースは読みながら復号化できるように、クラスの暗号方式にかかわらずaes-ctrで暗号化する
+                hierarchy = readHierarchy(zipFile);
+                rewriter = new ResourceCallRewriter(LoaderTemplate.getResourcesClass(context.getPackageName(), options.isSharedRuntime()),
+                        hierarchy);
+                warnPlainResourceCalls(zipFile, hierarchy);
+                resourceEncryptor = new ClassEncryptor(new CipherEngine(CipherEngine.Mode.AES_CTR, key), executor, verifier,
+                        metrics.stage("resources"), null, options.getLevel(), null);
+            }
+            if (options.isCompressClasses()) {
+                sample = metrics.start("dictionary");
+                dictionary = loadDictionary(zipFile);
+                sample.stop(0, dictionary.length, 1);
+            }
+            if (options.isPack()) pack = new TreeMap<String, byte[]>();
+            compression = new EntryCompression(loaders.keySet());
+            encryptor = new ClassEncryptor(new CipherEngine(options.getCipherMode(), key), executor, verifier, metrics.stage("encrypt"), dictionary, options.getLevel(), rewriter);
+            if (options.isStream()) {
+                streamJar(zipFile);
+            } else {
+                processTmpDir(zipFile);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + " [ファイル名=" + inFile + "]");
+            failed = true;
+        } finally {
+            ZipFile.closeQuietly(zipFile);
+        }
+        verifier.report();
+        return !failed && verifier.isSuccess();
+    }
+
+    public File getInFile() {
+        return inFile;
+    }
+
+    public JobMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 書き換えるエントリ(クラスファイル、plugin.yml、MANIFEST)だけを作業ディレクトリへ展開し、
+     * 再圧縮の後に、それ以外のエントリを入力jarから圧縮されたまま写します。
+     */
+    private void processTmpDir(ZipFile zipFile) throws IOException {
+        workDir = createWorkDir();
+        try {
+            ArrayList<File> files = new ArrayList<File>();
+            JobMetrics.Sample sample = metrics.start("unzip");
+            unzipJar();
+            FileUtil.listf(workDir, files);
+            sample.stop(inFile.length(), FileUtils.sizeOfDirectory(workDir), files.size());
+            encrypt(files);
+            sample = metrics.start("manifest");
+            sample.stop(0, writeFile(JobContext.MANIFEST, context.toManifest(loaders.keySet(), options.isLazy(), options.getCipherMode())), 1);
+            sample = metrics.start("keyfile");
+            sample.stop(0, writeFile(JobContext.KEY_FILE, keyToBytes(key)), 1);
+            if (dictionary != null) writeFile(JobContext.DICTIONARY_FILE, dictionary);
+            if (pack != null) {
+                sample = metrics.start("pack");
+                sample.stop(0, writeFile(JobContext.CLASS_PACK, packBytes()), pack.size());
+            }
+            for (Map.Entry<String, byte[]> packageInfo : packageInfos.entrySet()) {
+                writeFile(packageInfo.getKey(), packageInfo.getValue());
+            }
+            if (!plainClasses.isEmpty()) writeFile(JobContext.PLAIN_CLASSES, lines(plainClasses));
+            if (!encryptedResources.isEmpty()) writeFile(JobContext.ENCRYPTED_RESOURCES, lines(encryptedResources));
+            if (isOrdered()) writeFile(JobContext.CLASS_ORDER, lines(ClassHeader.order(supertypes)));
+            sample = metrics.start("loader");
+            sample.stop(0, 0, addLoader());
+            sample = metrics.start("plugin.yml");
+            sample.stop(0, writeFile(JobContext.PLUGIN_YML, context.toPluginYml(options.isSharedRuntime())), 1);
+            sample = metrics.start("rezip");
+            long size = FileUtils.sizeOfDirectory(workDir);
+            List<File> zipped = rezipJar(zipFile);
+            sample.stop(size, outFile.length(), zipped.size());
+        } finally {
+            JobMetrics.Sample sample = metrics.start("cleanup");
+            deleteTmpDir();
+            sample.stop();
+        }
+    }
+
+    /**
+     * 展開したクラスファイルを暗号化して上書きします。パックする場合はパックへ移し、ファイルは削除します。
+     * 暗号化するリソースは、暗号化して {@link JobContext#RESOURCE_DIRECTORY} 以下へ移します。
+     */
+    private void encrypt(List<File> files) throws IOException {
+        List<File> classFiles = new ArrayList<File>();
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+        List<File> resourceFiles = new ArrayList<File>();
+        List<Future<byte[]>> resourceFutures = new ArrayList<Future<byte[]>>();
+        for (File f : files) {
+            if (encryptedResources.contains(entryName(f))) {
+                resourceFiles.add(f);
+                resourceFutures.add(resourceEncryptor.submit(entryName(f), f));
+                continue;
+            }
+            if (!f.getName().endsWith(".class")) continue;
+            classFiles.add(f);
+            if (!options.isLazy()) recordSupertypes(entryName(f), FileUtils.readFileToByteArray(f));
+            futures.add(encryptor.submit(entryName(f), f));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                byte[] encrypted = ClassEncryptor.get(futures.get(i));
+                if (pack != null) {
+                    File f = classFiles.get(i);
+                    pack.put(entryName(f), encrypted);
+                    if (!f.delete()) throw new IOException("パックしたクラスファイルを削除できません。file=" + f);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        }
+        for (int i = 0; i < resourceFutures.size(); i++) {
+            try {
+                ClassEncryptor.get(resourceFutures.get(i));
+                File f = resourceFiles.get(i);
+                FileUtils.moveFile(f, new File(workDir, JobContext.RESOURCE_DIRECTORY + entryName(f)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        }
+    }
+
+    /**
+     * 入力jarのエントリをメモリ上で暗号化・書き換えし、そのまま出力jarへ書き出します。
+     * 一時ディレクトリへの展開と再圧縮を行わないため、ディスクへの読み書きは入出力jarの1回ずつだけです。
+     * クラスファイルの暗号化はワーカーに投げ、書き出しは入力順のまま行います。
+     * 未書き出しのエントリはスレッド数の数倍までに抑えるので、jar全体をメモリに載せることはありません。
+     * <p>
+     * パックする場合は、暗号文だけは最後にまとめて書き出すまでメモリに溜めます。
+     * 書き換えないエントリ(リソースなど)は解凍せず、入力jarから圧縮方法・CRC・サイズごと圧縮されたまま写します。
+     * <p>
+     * 差分モードでは、前回の出力jarと差分インデックスから、内容(SHA-256)が変わっていない
+     * クラスファイルの暗号文を前回の出力jarから圧縮されたまま写します。
+     * リソースを読む呼び出しを置き換える場合は、入力jarのどれかのクラスの継承関係が変わると全件暗号化し直します。
+     * 失敗した場合は書きかけの出力jarを削除し、前回の出力jarがあれば(差分インデックスとともに)元に戻します。
+     */
+    private void streamJar(ZipFile zipFile) {
+        ZipArchiveOutputStream zos = null;
+        File prevFile = null;
+        ZipFile prev = null;
+        boolean finished = false;
+        try {
+            Properties prevIndex = loadIndex();
+            if (prevIndex != null) {
+                prevFile = new File(outFile.getPath() + ".prev");
+                FileUtils.deleteQuietly(prevFile);
+                FileUtils.moveFile(outFile, prevFile);
+                prev = new ZipFile(prevFile, "utf-8");
+            }
+            Properties index = new Properties();
+            index.setProperty(INDEX_FORMAT_KEY, indexFormat());
+            int reused = 0;
+
+            JobMetrics.Sample sample = metrics.start("stream");
+            long bytesIn = 0;
+            CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(outFile));
+            zos = new ZipArchiveOutputStream(new BufferedOutputStream(counter));
+            zos.setEncoding("utf-8");
+            zos.setLevel(options.getLevel());
+            if (context.isManifestMissing()) putEntry(zos, JobContext.MANIFEST, context.toManifest(loaders.keySet(), options.isLazy(), options.getCipherMode()));
+
+            LinkedList<PendingEntry> pending = new LinkedList<PendingEntry>();
+            for (ZipArchiveEntry entry : context.getEntries()) {
+                String name = entry.getName();
+                if (entry.getCompressedSize() > 0) bytesIn += entry.getCompressedSize();
+                if (entry.isDirectory()) {
+                    pending.add(new PendingEntry(name, (byte[]) null));
+                } else if (isRewritten(entry) && name.endsWith(".class")) {
+                    byte[] bytes = JobContext.readEntry(zipFile, entry);
+                    String hash = digest(bytes);
+                    index.setProperty(name, hash);
+                    ZipArchiveEntry prevEntry = prev != null && hash.equals(prevIndex.getProperty(name)) ? prev.getEntry(name) : null;
+                    String prevSupertypes = prevEntry != null ? prevIndex.getProperty(INDEX_SUPERTYPES_PREFIX + name) : null;
+                    if (prevEntry != null) {
+                        pending.add(new PendingEntry(prev, prevEntry));
+                        reused++;
+                        if (prevSupertypes != null) {
+                            supertypes.put(name, prevSupertypes.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(prevSupertypes.split(" ")));
+                        } else if (!options.isLazy()) {
+                            recordSupertypes(name, bytes);
+                        }
+                    } else {
+                        if (!options.isLazy()) recordSupertypes(name, bytes);
+                        pending.add(new PendingEntry(name, encryptor.submit(name, bytes)));
+                    }
+                    if (supertypes.containsKey(name)) index.setProperty(INDEX_SUPERTYPES_PREFIX + name, join(supertypes.get(name), " "));
+                } else if (encryptedResources.contains(name)) {
+                    byte[] bytes = JobContext.readEntry(zipFile, entry);
+                    pending.add(new PendingEntry(JobContext.RESOURCE_DIRECTORY + name, resourceEncryptor.submit(name, bytes)));
+                } else if (name.equals(JobContext.PLUGIN_YML)) {
+                    pending.add(new PendingEntry(name, context.toPluginYml(options.isSharedRuntime())));
+                } else if (name.equals(JobContext.MANIFEST)) {
+                    pending.add(new PendingEntry(name, context.toManifest(loaders.keySet(), options.isLazy(), options.getCipherMode())));
+                } else {
+                    pending.add(new PendingEntry(zipFile, entry));
+                    metrics.stage("raw").count(entry.getCompressedSize(), entry.getCompressedSize(), 1);
+                }
+                while (pending.size() > options.getThreads() * 4) {
+                    pending.removeFirst().write(zos);
+                }
+            }
+            while (!pending.isEmpty()) {
+                pending.removeFirst().write(zos);
+            }
+            zos.flush();
+            sample.stop(bytesIn, counter.getByteCount(), context.getEntries().size());
+
+            sample = metrics.start("finish");
+            long written = counter.getByteCount();
+            putEntry(zos, JobContext.KEY_FILE, keyToBytes(key));
+            if (dictionary != null) putEntry(zos, JobContext.DICTIONARY_FILE, dictionary);
+            if (pack != null) putEntry(zos, JobContext.CLASS_PACK, packBytes());
+            for (Map.Entry<String, byte[]> packageInfo : packageInfos.entrySet()) {
+                putEntry(zos, packageInfo.getKey(), packageInfo.getValue());
+            }
+            if (!plainClasses.isEmpty()) putEntry(zos, JobContext.PLAIN_CLASSES, lines(plainClasses));
+            if (!encryptedResources.isEmpty()) putEntry(zos, JobContext.ENCRYPTED_RESOURCES, lines(encryptedResources));
+            if (isOrdered()) putEntry(zos, JobContext.CLASS_ORDER, lines(ClassHeader.order(supertypes)));
+            for (Map.Entry<String, byte[]> loader : loaders.entrySet()) {
+                putEntry(zos, loader.getKey(), loader.getValue());
+            }
+            zos.finish();
+            zos.flush();
+            finished = true;
+
+            if (options.isIncremental()) {
+                saveIndex(index);
+                LoaderLog.info("差分: " + reused + "件を前回の出力から再利用");
+            }
+            sample.stop(0, counter.getByteCount() - written, 0);
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        } finally {
+            Closer.ioClose(zos);
+            ZipFile.closeQuietly(prev);
+            boolean restored = false;
+            if (finished) {
+                FileUtils.deleteQuietly(prevFile);
+            } else {
+                FileUtils.deleteQuietly(outFile);
+                restored = restorePrevious(prevFile);
+            }
+            if (failed && !restored) FileUtils.deleteQuietly(indexFile());   // 次回は全件暗号化する
+        }
+    }
+
+    /**
+     * 退避した前回の出力jarを元の場所に戻します。差分インデックスは前回のもののままなので、そのまま使えます。
+     *
+     * @return 戻した場合はtrue
+     */
+    private boolean restorePrevious(File prevFile) {
+        if (prevFile == null || !prevFile.exists()) return false;
+        try {
+            FileUtils.moveFile(prevFile, outFile);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 使用する鍵を決めます。
+     * 鍵ファイルが指定されていればそれを読み(無ければ生成して保存し)、
+     * 差分モードで前回の出力jarがあればそのKey.classを使います。それ以外は毎回生成します。
+     */
+    private Key loadKey() throws IOException {
+        File keyFile = options.getKeyFile();
+        if (keyFile != null) {
+            if (keyFile.exists()) return bytesToKey(FileUtils.readFileToByteArray(keyFile));
+            Key newKey = generationKey();
+            FileUtils.writeByteArrayToFile(keyFile, keyToBytes(newKey));
+            return newKey;
+        }
+        if (options.isIncremental() && outFile.exists()) {
+            ZipFile prev = new ZipFile(outFile, "utf-8");
+            try {
+                ZipArchiveEntry keyEntry = prev.getEntry(JobContext.KEY_FILE);
+                if (keyEntry != null) return bytesToKey(JobContext.readEntry(prev, keyEntry));
+            } finally {
+                ZipFile.closeQuietly(prev);
+            }
+        }
+        return generationKey();
+    }
+
+    /**
+     * 暗号化前の圧縮に使う辞書を決めます。
+     * 差分モードで前回の出力jarに辞書があればそれを使い(辞書が変わると全件暗号化し直しになるため)、
+     * それ以外は暗号化するクラスファイルから学習します。
+     */
+    private byte[] loadDictionary(ZipFile zipFile) throws IOException {
+        if (options.isIncremental() && outFile.exists()) {
+            ZipFile prev = new ZipFile(outFile, "utf-8");
+            try {
+                ZipArchiveEntry dictEntry = prev.getEntry(JobContext.DICTIONARY_FILE);
+                if (dictEntry != null) return JobContext.readEntry(prev, dictEntry);
+            } finally {
+                ZipFile.closeQuietly(prev);
+            }
+        }
+        ClassDictionary trainer = new ClassDictionary();
+        for (ZipArchiveEntry entry : context.getEntries()) {
+            if (!isRewritten(entry) || !entry.getName().endsWith(".class")) continue;
+            if (!trainer.add(JobContext.readEntry(zipFile, entry))) break;
+        }
+        return trainer.build();
+    }
+
+    private Key bytesToKey(byte[] bytes) throws IOException {
+        ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (Key) objectInputStream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("鍵を読み込めません。", e);
+        } finally {
+            Closer.ioClose(objectInputStream);
+        }
+    }
+
+    private File indexFile() {
+        return new File(outFile.getPath() + ".idx");
+    }
+
+    /**
+     * 暗号化の方式と鍵(と圧縮の辞書)が変わるとインデックスは使えないので、その指紋を入れておきます。
+     */
+    private String indexFormat() throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(key.getEncoded());
+            if (dictionary != null) md.update(dictionary);
+            // 置き換えるかどうかは他のクラスの継承関係で決まるので、どれかが変わったら全件暗号化し直す
+            if (hierarchy != null) {
+                for (Map.Entry<String, List<String>> type : new TreeMap<String, List<String>>(hierarchy).entrySet()) {
+                    md.update((type.getKey() + "=" + join(type.getValue(), " ") + "\n").getBytes("utf-8"));
+                }
+            }
+            CipherEngine.Mode mode = options.getCipherMode();
+            // リソースを読む呼び出しを置き換えたクラスは、置き換え先のクラスごとに中身が違う
+            return key.getAlgorithm() + (mode != CipherEngine.Mode.AES_ECB ? "/" + mode : "")
+                    + (dictionary != null ? "+deflate" : "")
+                    + (rewriter != null ? "+resources=" + LoaderTemplate.getResourcesClass(context.getPackageName(), options.isSharedRuntime()) : "")
+                    + ":" + new BigInteger(1, md.digest()).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return エントリの内容のSHA-256
+     */
+    private static String digest(byte[] bytes) throws IOException {
+        try {
+            return new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(bytes)).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * 前回の差分インデックスを読み込みます。差分モードでない場合や使えない場合はnullです。
+     */
+    private Properties loadIndex() throws IOException {
+        if (!options.isIncremental() || !outFile.exists() || !indexFile().exists()) return null;
+        Properties index = new Properties();
+        InputStream is = new FileInputStream(indexFile());
+        try {
+            index.load(is);
+        } finally {
+            Closer.ioClose(is);
+        }
+        return indexFormat().equals(index.getProperty(INDEX_FORMAT_KEY)) ? index : null;
+    }
+
+    private void saveIndex(Properties index) throws IOException {
+        OutputStream os = new FileOutputStream(indexFile());
+        try {
+            index.store(os, "cbpadc incremental index");
+        } finally {
+            Closer.ioClose(os);
+        }
+    }
+
+    /**
+     * エントリを書き込みます。暗号化したクラスファイルなどはSTOREDで格納します。
+     *
+     * @param bytes 内容(ディレクトリの場合はnull)
+     */
+    private void putEntry(ZipArchiveOutputStream zos, String name, byte[] bytes) throws IOException {
+        if (bytes != null) {
+            ZipArchive.addEntry(zos, name, bytes, compression);
+            return;
+        }
+        zos.putArchiveEntry(new ZipArchiveEntry(name));
+        zos.closeArchiveEntry();
+    }
+
+    private byte[] keyToBytes(Key key) throws IOException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
+        objectOutputStream.writeObject(key);
+        objectOutputStream.close();
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * PluginLoaderのテンプレートをプラグインのパッケージへ移します。
+     * 共有ランタイムを使う場合は、ランタイムに任せるスタブだけを PluginLoader として移します。
+     *
+     * @throws IllegalArgumentException 入力jarに同じ名前のクラスがある場合
+     */
+    private Map<String, byte[]> relocateLoader() throws IOException {
+        Map<String, byte[]> classes = options.isSharedRuntime()
+                ? LoaderTemplate.relocateStub(context.getPackageName())
+                : LoaderTemplate.relocate(context.getPackageName());
+        for (String name : classes.keySet()) {
+            if (context.hasEntry(name)) throw new IllegalArgumentException("PluginLoaderと同じ名前のクラスがあります。entry=" + name);
+        }
+        return classes;
+    }
+
+    /**
+     * @return 追加したクラスの数
+     */
+    private int addLoader() throws IOException {
+        for (Map.Entry<String, byte[]> loader : loaders.entrySet()) {
+            writeFile(loader.getKey(), loader.getValue());
+        }
+        return loaders.size();
+    }
+
+    /**
+     * @return 書き込んだバイト数
+     */
+    private long writeFile(String name, byte[] bytes) throws IOException {
+        FileUtils.writeByteArrayToFile(new File(workDir, name), bytes);
+        return bytes.length;
+    }
+
+    /**
+     * 作業ディレクトリを圧縮した後に、展開しなかったエントリを入力jarから圧縮されたまま追加します。
+     * 失敗した場合は、書きかけの出力jarを削除します。
+     */
+    private List<File> rezipJar(ZipFile zipFile) throws IOException {
+        ZipArchiveOutputStream zos = null;
+        boolean finished = false;
+        try {
+            zos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)));
+            zos.setEncoding("utf-8");
+            List<File> zipped;
+            try {
+                zipped = ZipArchive.compress(workDir.listFiles(), zos, options.getLevel(), compression, options.getThreads());
+            } catch (RuntimeException e) {
+                // ZipArchiveは失敗をRuntimeExceptionで投げるので、ほかの入出力エラーと同じくジョブの失敗にする
+                throw new IOException(e.getMessage(), e.getCause() != null ? e.getCause() : e);
+            }
+            Set<String> written = new HashSet<String>();
+            for (File file : zipped) {
+                written.add(entryName(file));
+            }
+            JobMetrics.Sample sample = metrics.start("raw");
+            long bytes = 0;
+            int count = 0;
+            for (ZipArchiveEntry entry : context.getEntries()) {
+                if (isRewritten(entry) || written.contains(entry.getName())) continue;
+                copyRaw(zos, zipFile, entry);
+                bytes += Math.max(0, entry.getCompressedSize());
+                count++;
+            }
+            sample.stop(bytes, bytes, count);
+            zos.finish();
+            finished = true;
+            return zipped;
+        } finally {
+            Closer.ioClose(zos);
+            if (!finished) FileUtils.deleteQuietly(outFile);
+        }
+    }
+
+    private String entryName(File file) {
+        String name = workDir.toURI().relativize(file.toURI()).getPath();
+        return file.isDirectory() && !name.endsWith("/") ? name + "/" : name;
+    }
+
+    /**
+     * 難読化で書き換えるエントリかどうか。暗号化しないクラスファイルを含め、それ以外は元のjarから圧縮されたまま写します。
+     */
+    private boolean isRewritten(ZipArchiveEntry entry) {
+        String name = entry.getName();
+        return !entry.isDirectory() && ((name.endsWith(".class") && !plainClasses.contains(name))
+                || name.equals(JobContext.PLUGIN_YML) || name.equals(JobContext.MANIFEST) || encryptedResources.contains(name));
+    }
+
+    /**
+     * -encrypt-resources で指定したリソースのうち、jarにあるものを選びます。
+     */
+    private Set<String> selectResources() {
+        Set<String> resources = new TreeSet<String>();
+        ResourcePolicy policy = options.getResourcePolicy();
+        if (policy.isEmpty()) return resources;
+        for (ZipArchiveEntry entry : context.getEntries()) {
+            if (entry.isDirectory()) continue;
+            if (policy.isEncrypted(entry.getName())) {
+                resources.add(entry.getName());
+            } else if (entry.getName().equals(ResourcePolicy.CONFIG_YML) && policy.matches(entry.getName())) {
+                LoaderLog.warn(ResourcePolicy.CONFIG_YML + " は暗号化しません。Bukkitの getConfig が既定値を読めなくなるためです。");
+            }
+        }
+        return resources;
+    }
+
+    /**
+     * 平文のまま残すクラスは書き換えないので、その中のリソースを読む呼び出しは暗号化したリソースを読めません。
+     * そのような呼び出しがあるクラスを警告します。
+     */
+    private void warnPlainResourceCalls(ZipFile zipFile, Map<String, List<String>> hierarchy) throws IOException {
+        ResourceCallRewriter checker = new ResourceCallRewriter(rewriter.getHelperClass(), hierarchy, false);
+        for (String name : plainClasses) {
+            ZipArchiveEntry entry = zipFile.getEntry(name);
+            if (entry == null) continue;    // 作った package-info
+            byte[] classFile = JobContext.readEntry(zipFile, entry);
+            try {
+                if (checker.rewrite(classFile) != classFile) {
+                    LoaderLog.warn(name + ": 平文のクラスなのでリソースを読む呼び出しを置き換えません。暗号化したリソースはここからは読めません。");
+                }
+            } catch (IOException e) {
+                LoaderLog.warn(name + ": クラスファイルを読めないため、リソースを読む呼び出しを確認できません。(" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    /**
+     * 暗号化ポリシーで暗号化しないクラスファイルを選びます。サイズはセントラルディレクトリの値を使います。
+     * package-info はコードを含まないので、常に平文のまま残します({@link #createPackageInfos()})。
+     */
+    private Set<String> selectPlainClasses() {
+        Set<String> plain = new LinkedHashSet<String>();
+        EncryptionPolicy policy = options.getEncryptionPolicy();
+        for (ZipArchiveEntry entry : context.getEntries()) {
+            String name = entry.getName();
+            if (entry.isDirectory() || !name.endsWith(".class")) continue;
+            if (isPackageInfo(name) || (!policy.isEncryptAll() && !policy.isEncrypted(name, entry.getSize()))) plain.add(name);
+        }
+        return plain;
+    }
+
+    /**
+     * 暗号化するクラスがあり、package-info が無いパッケージに、中身の無い package-info を作ります。
+     * Java 9以降のPluginLoaderは、これを足がかりにパッケージのクラスを MethodHandles.Lookup で定義します。
+     * PluginLoaderを置くパッケージには作りません。
+     *
+     * @return エントリ名とクラスファイル
+     */
+    private Map<String, byte[]> createPackageInfos() {
+        String loaderPackage = context.getPackageName().isEmpty() ? "" : context.getPackageName().replace('.', '/') + "/";
+        Map<String, byte[]> packageInfos = new TreeMap<String, byte[]>();
+        for (ZipArchiveEntry entry : context.getEntries()) {
+            String name = entry.getName();
+            if (entry.isDirectory() || !name.endsWith(".class") || plainClasses.contains(name)) continue;
+            String packagePath = name.substring(0, name.lastIndexOf('/') + 1);
+            String packageInfo = packagePath + ClassHeader.PACKAGE_INFO;
+            if (packagePath.equals(loaderPackage) || context.hasEntry(packageInfo) || packageInfos.containsKey(packageInfo)) continue;
+            packageInfos.put(packageInfo, ClassHeader.packageInfo(packagePath));
+        }
+        return packageInfos;
+    }
+
+    private static boolean isPackageInfo(String name) {
+        return name.equals(ClassHeader.PACKAGE_INFO) || name.endsWith("/" + ClassHeader.PACKAGE_INFO);
+    }
+
+    private byte[] packBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClassPack.write(pack, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 遅延復号化では要求された順に定義するので、定義順は書き込みません。
+     */
+    private boolean isOrdered() {
+        return !options.isLazy() && !supertypes.isEmpty();
+    }
+
+    /**
+     * 定義順を求めるため、クラスファイルのスーパークラスとインターフェースを記録します。
+     * 読めないクラスは記録せず、PluginLoaderの再試行に任せます。
+     */
+    private void recordSupertypes(String name, byte[] classFile) {
+        try {
+            supertypes.put(name, ClassHeader.supertypes(classFile));
+        } catch (IOException e) {
+            LoaderLog.warn(name + ": クラスファイルのヘッダを読めないため、定義順に含めません。(" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * リソースを読む呼び出しを置き換えるかどうかを決めるため、平文のクラスも含め、jarのすべてのクラスの継承関係を読みます。
+     * 読めないクラスは含めません(そのクラスを呼び出し先にした呼び出しは置き換えません)。
+     */
+    private Map<String, List<String>> readHierarchy(ZipFile zipFile) throws IOException {
+        Map<String, List<String>> hierarchy = new HashMap<String, List<String>>();
+        for (ZipArchiveEntry entry : context.getEntries()) {
+            String name = entry.getName();
+            if (entry.isDirectory() || !name.endsWith(".class")) continue;
+            try {
+                hierarchy.put(name, ClassHeader.supertypes(JobContext.readEntry(zipFile, entry)));
+            } catch (IOException e) {
+                LoaderLog.warn(name + ": クラスファイルのヘッダを読めないため、継承関係に含めません。(" + e.getMessage() + ")");
+            }
+        }
+        return hierarchy;
+    }
+
+    private static String join(Collection<String> values, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) joined.append(separator);
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * 1行に1つのエントリ名を並べたリストにします。
+     */
+    private static byte[] lines(Collection<String> names) throws UnsupportedEncodingException {
+        StringBuilder list = new StringBuilder();
+        for (String name : names) {
+            list.append(name).append('\n');
+        }
+        return list.toString().getBytes("utf-8");
+    }
+
+    /**
+     * エントリを解凍・再圧縮せずに、圧縮方法・CRC・サイズを保ったまま写します。
+     */
+    private static void copyRaw(ZipArchiveOutputStream zos, ZipFile source, ZipArchiveEntry entry) throws IOException {
+        InputStream raw = source.getRawInputStream(entry);
+        try {
+            zos.addRawArchiveEntry(new ZipArchiveEntry(entry), raw);
+        } finally {
+            Closer.ioClose(raw);
+        }
+    }
+
+    /**
+     * 展開に失敗したまま再圧縮すると、クラスの欠けたjarを成功として出力してしまうので、例外はそのまま投げます。
+     */
+    private List<File> unzipJar() throws IOException {
+        Set<String> names = new HashSet<String>();
+        for (ZipArchiveEntry entry : context.getEntries()) {
+            if (isRewritten(entry)) names.add(entry.getName());
+        }
+        return ZipUtil.unZip(inFile, workDir, "utf-8", options.getThreads(), names);
+    }
+
+    private File createWorkDir() throws IOException {
+        File dir = File.createTempFile("cbpadc", "", FileUtils.getTempDirectory());
+        if (!dir.delete() || !dir.mkdir()) throw new IOException("作業ディレクトリを作成できません。dir=" + dir);
+        return dir;
+    }
+
+    private void deleteTmpDir() {
+        try {
+            FileUtils.deleteDirectory(workDir);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Key generationKey() {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+            generator.init(128, random);
+            return generator.generateKey();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 書き出し待ちのエントリ。暗号化中のクラスファイルはFutureで、
+     * 前回の出力から再利用するエントリや書き換えないエントリは元のzipのエントリで保持します。
+     */
+    private class PendingEntry {
+        final String name;
+        final byte[] bytes;
+        final Future<byte[]> future;
+        final ZipFile rawSource;
+        final ZipArchiveEntry rawEntry;
+
+        PendingEntry(String name, byte[] bytes) {
+            this(name, bytes, null, null, null);
+        }
+
+        PendingEntry(String name, Future<byte[]> future) {
+            this(name, null, future, null, null);
+        }
+
+        PendingEntry(ZipFile rawSource, ZipArchiveEntry rawEntry) {
+            this(rawEntry.getName(), null, null, rawSource, rawEntry);
+        }
+
+        private PendingEntry(String name, byte[] bytes, Future<byte[]> future, ZipFile rawSource, ZipArchiveEntry rawEntry) {
+            this.name = name;
+            this.bytes = bytes;
+            this.future = future;
+            this.rawSource = rawSource;
+            this.rawEntry = rawEntry;
+        }
+
+        void write(ZipArchiveOutputStream zos) throws IOException {
+            if (rawEntry != null) {
+                copyRaw(zos, rawSource, rawEntry);
+            } else if (future != null && pack != null && name.endsWith(".class")) {
+                pack.put(name, ClassEncryptor.get(future));
+            } else {
+                putEntry(zos, name, future != null ? ClassEncryptor.get(future) : bytes);
+            }
+        }
+    }
+}
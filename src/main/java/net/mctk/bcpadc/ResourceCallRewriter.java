@@ -0,0 +1,408 @@
+package net.mctk.bcpadc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import net.mctk.bcpadc.loader.LoaderLog;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 暗号化するクラスの中の、リソースを読む呼び出しをPluginLoaderの EncryptedResources のstaticメソッドに置き換えます。
+ * 暗号化したリソースは元の場所に無いので、プラグインのコードを変えずに getResource などで読めるようにするためです。
+ * <p>
+ * 置き換えるのは invokevirtual と invokeinterface だけで(super.getResource などの invokespecial はそのまま)、
+ * 呼び出し先のオブジェクトを第1引数にした invokestatic にします。スタックの形は変わらず、
+ * invokestatic は invokevirtual と同じ3バイトなので(invokeinterface の残りの2バイトはnopにします)、
+ * 命令のオフセットやStackMapTableはそのままです。メソッド参照は定数プールの末尾に追加します。
+ * <p>
+ * 呼び出し先のクラス(メソッド参照のクラス)が Plugin や ClassLoader のサブクラスかどうかは、jarのクラスの継承関係と、
+ * jarの外のクラスはツールのJVMで読めるかどうかで判定します。判定できない呼び出しは置き換えず、警告を出します。
+ */
+public final class ResourceCallRewriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+
+    private static final String PLUGIN = "org/bukkit/plugin/Plugin";
+    private static final String CLASS_LOADER = "java/lang/ClassLoader";
+
+    /**
+     * 置き換える呼び出し: {クラス(このクラスとサブクラス), メソッド名, ディスクリプタ, 置き換え先のメソッド名, 置き換え先のディスクリプタ}。
+     * Plugin のメソッドは、プラグインのクラス(JavaPluginのサブクラス)をクラスにして呼ばれることがほとんどです。
+     */
+    private static final String[][] CALLS = {
+            {PLUGIN, "getResource", "(Ljava/lang/String;)Ljava/io/InputStream;",
+                    "pluginResource", "(Lorg/bukkit/plugin/Plugin;Ljava/lang/String;)Ljava/io/InputStream;"},
+            {PLUGIN, "saveResource", "(Ljava/lang/String;Z)V",
+                    "saveResource", "(Lorg/bukkit/plugin/Plugin;Ljava/lang/String;Z)V"},
+            {PLUGIN, "saveDefaultConfig", "()V",
+                    "saveDefaultConfig", "(Lorg/bukkit/plugin/Plugin;)V"},
+            {"java/lang/Class", "getResourceAsStream", "(Ljava/lang/String;)Ljava/io/InputStream;",
+                    "classResourceAsStream", "(Ljava/lang/Class;Ljava/lang/String;)Ljava/io/InputStream;"},
+            {"java/lang/Class", "getResource", "(Ljava/lang/String;)Ljava/net/URL;",
+                    "classResource", "(Ljava/lang/Class;Ljava/lang/String;)Ljava/net/URL;"},
+            {CLASS_LOADER, "getResourceAsStream", "(Ljava/lang/String;)Ljava/io/InputStream;",
+                    "loaderResourceAsStream", "(Ljava/lang/ClassLoader;Ljava/lang/String;)Ljava/io/InputStream;"},
+            {CLASS_LOADER, "getResource", "(Ljava/lang/String;)Ljava/net/URL;",
+                    "loaderResource", "(Ljava/lang/ClassLoader;Ljava/lang/String;)Ljava/net/URL;"},
+    };
+
+    /**
+     * ツールのクラスパスに無いBukkitのクラスの、スーパークラスとインターフェース
+     */
+    private static final Map<String, String> BUKKIT_SUPERTYPES = new HashMap<String, String>();
+
+    static {
+        BUKKIT_SUPERTYPES.put("org/bukkit/plugin/java/JavaPlugin", "org/bukkit/plugin/PluginBase");
+        BUKKIT_SUPERTYPES.put("org/bukkit/plugin/PluginBase", PLUGIN);
+        BUKKIT_SUPERTYPES.put("org/bukkit/plugin/java/PluginClassLoader", "java/net/URLClassLoader");
+    }
+
+    private final String helperClass;
+    private final Map<String, List<String>> supertypes;
+    private final boolean warnUnknown;
+    private final AtomicInteger rewritten = new AtomicInteger();
+
+    /**
+     * @param helperClass 置き換え先のクラス(内部形式, 例: com/example/foo/EncryptedResources)
+     * @param supertypes  jarのすべてのクラスの、スーパークラスとインターフェース({@link ClassHeader#supertypes(byte[])}, キーはエントリ名)
+     */
+    public ResourceCallRewriter(String helperClass, Map<String, List<String>> supertypes) {
+        this(helperClass, supertypes, true);
+    }
+
+    /**
+     * @param warnUnknown 継承関係が分からない呼び出しを警告する場合はtrue(呼び出しがあるかを確かめるだけならfalse)
+     */
+    ResourceCallRewriter(String helperClass, Map<String, List<String>> supertypes, boolean warnUnknown) {
+        this.helperClass = helperClass;
+        this.supertypes = supertypes;
+        this.warnUnknown = warnUnknown;
+    }
+
+    /**
+     * @return 置き換え先のクラス(内部形式)
+     */
+    public String getHelperClass() {
+        return helperClass;
+    }
+
+    /**
+     * @return これまでに置き換えた呼び出しの数
+     */
+    public int getRewritten() {
+        return rewritten.get();
+    }
+
+    /**
+     * @param classFile クラスファイル
+     * @return 置き換えたクラスファイル(置き換える呼び出しが無ければ classFile をそのまま返します)
+     * @throws IOException クラスファイルとして読めない場合
+     */
+    public byte[] rewrite(byte[] classFile) throws IOException {
+        try {
+            return rewrite(ByteBuffer.wrap(classFile), classFile);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("クラスファイルが途中で終わっています。", e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("クラスファイルが壊れています。", e);
+        }
+    }
+
+    private byte[] rewrite(ByteBuffer in, byte[] classFile) throws IOException {
+        if (in.getInt() != MAGIC) throw new IOException("クラスファイルではありません。");
+        in.getShort();  // minor_version
+        in.getShort();  // major_version
+        int count = in.getShort() & 0xffff;
+        int[] tags = new int[count];
+        int[] first = new int[count];
+        int[] second = new int[count];
+        String[] utf8 = new String[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.get() & 0xff;
+            tags[i] = tag;
+            switch (tag) {
+                case 1:     // Utf8
+                    byte[] bytes = new byte[in.getShort() & 0xffff];
+                    in.get(bytes);
+                    utf8[i] = new String(bytes, "UTF-8");  // 比較するのはASCIIの名前だけ
+                    break;
+                case 7:     // Class
+                case 8:     // String
+                case 16:    // MethodType
+                case 19:    // Module
+                case 20:    // Package
+                    first[i] = in.getShort() & 0xffff;
+                    break;
+                case 15:    // MethodHandle
+                    in.get();
+                    in.getShort();
+                    break;
+                case 9:     // Fieldref
+                case 10:    // Methodref
+                case 11:    // InterfaceMethodref
+                case 12:    // NameAndType
+                case 17:    // Dynamic
+                case 18:    // InvokeDynamic
+                    first[i] = in.getShort() & 0xffff;
+                    second[i] = in.getShort() & 0xffff;
+                    break;
+                case 3:     // Integer
+                case 4:     // Float
+                    in.getInt();
+                    break;
+                case 5:     // Long
+                case 6:     // Double
+                    in.getLong();
+                    i++;    // 2スロット使う
+                    break;
+                default:
+                    throw new IOException("未知の定数プールタグです。tag=" + tag + ", index=" + i);
+            }
+        }
+        int constantPoolEnd = in.position();
+
+        // 置き換えるメソッド参照と、CALLS のどれに当たるか
+        int[] calls = new int[count];
+        Map<Integer, Integer> used = new LinkedHashMap<Integer, Integer>();
+        for (int i = 1; i < count; i++) {
+            calls[i] = -1;
+            if (tags[i] != 10 && tags[i] != 11) continue;
+            String owner = utf8[first[first[i]]];
+            String name = utf8[first[second[i]]];
+            String descriptor = utf8[second[second[i]]];
+            for (int c = 0; c < CALLS.length; c++) {
+                if (!CALLS[c][1].equals(name) || !CALLS[c][2].equals(descriptor)) continue;
+                if (owner.equals(helperClass)) break;
+                Boolean assignable = isAssignable(owner, CALLS[c][0]);
+                if (assignable == null) {
+                    if (warnUnknown) LoaderLog.warn(owner + "." + name + ": " + CALLS[c][0] + " のサブクラスか分からないため、呼び出しを置き換えません。");
+                } else if (assignable) {
+                    calls[i] = c;
+                    used.put(c, 0);
+                    break;
+                }
+            }
+        }
+        if (used.isEmpty()) return classFile;
+
+        // 定数プールの末尾に置き換え先のメソッド参照を追加する
+        ByteArrayOutputStream appended = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(appended);
+        int next = count;
+        out.writeByte(1);
+        out.writeUTF(helperClass);
+        int helperName = next++;
+        out.writeByte(7);
+        out.writeShort(helperName);
+        int helperIndex = next++;
+        for (Map.Entry<Integer, Integer> call : used.entrySet()) {
+            String[] target = CALLS[call.getKey()];
+            out.writeByte(1);
+            out.writeUTF(target[3]);
+            int nameIndex = next++;
+            out.writeByte(1);
+            out.writeUTF(target[4]);
+            int descriptorIndex = next++;
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            int nameAndType = next++;
+            out.writeByte(10);
+            out.writeShort(helperIndex);
+            out.writeShort(nameAndType);
+            call.setValue(next++);
+        }
+        out.flush();
+        if (next > 0xffff) throw new IOException("定数プールが一杯です。");
+
+        // メソッドのCodeを命令ごとにたどり、置き換える呼び出しの位置を集める
+        List<int[]> patches = new ArrayList<int[]>();
+        in.getShort();  // access_flags
+        in.getShort();  // this_class
+        in.getShort();  // super_class
+        int interfaces = in.getShort() & 0xffff;
+        in.position(in.position() + 2 * interfaces);
+        skipMembers(in);    // fields
+        int methods = in.getShort() & 0xffff;
+        for (int m = 0; m < methods; m++) {
+            in.position(in.position() + 6);
+            int attributes = in.getShort() & 0xffff;
+            for (int a = 0; a < attributes; a++) {
+                String attributeName = utf8[in.getShort() & 0xffff];
+                int length = in.getInt();
+                int end = in.position() + length;
+                if ("Code".equals(attributeName)) {
+                    in.position(in.position() + 4);     // max_stack, max_locals
+                    int codeLength = in.getInt();
+                    findCalls(classFile, in.position(), codeLength, calls, used, patches);
+                }
+                in.position(end);
+            }
+        }
+        if (patches.isEmpty()) return classFile;
+
+        byte[] extra = appended.toByteArray();
+        byte[] result = new byte[classFile.length + extra.length];
+        System.arraycopy(classFile, 0, result, 0, 8);
+        result[8] = (byte) (next >>> 8);
+        result[9] = (byte) next;
+        System.arraycopy(classFile, 10, result, 10, constantPoolEnd - 10);
+        System.arraycopy(extra, 0, result, constantPoolEnd, extra.length);
+        System.arraycopy(classFile, constantPoolEnd, result, constantPoolEnd + extra.length, classFile.length - constantPoolEnd);
+        for (int[] patch : patches) {
+            int position = patch[0] + extra.length;
+            boolean invokeInterface = (result[position] & 0xff) == INVOKEINTERFACE;
+            result[position] = (byte) INVOKESTATIC;
+            result[position + 1] = (byte) (patch[1] >>> 8);
+            result[position + 2] = (byte) patch[1];
+            if (invokeInterface) {
+                result[position + 3] = 0;   // nop
+                result[position + 4] = 0;   // nop
+            }
+        }
+        rewritten.addAndGet(patches.size());
+        return result;
+    }
+
+    /**
+     * owner が type かそのサブクラス(実装クラス)かどうかを、jarのクラスの継承関係からたどります。
+     * jarの外のクラスは、Bukkitの既知のクラスか、ツールのJVMで読めるクラスなら判定できます。
+     *
+     * @param owner 内部形式のクラス名
+     * @param type  内部形式のクラス名
+     * @return 判定できない場合はnull
+     */
+    private Boolean isAssignable(String owner, String type) {
+        Deque<String> names = new ArrayDeque<String>();
+        Set<String> visited = new HashSet<String>();
+        boolean unknown = false;
+        names.push(owner);
+        while (!names.isEmpty()) {
+            String name = names.pop();
+            if (!visited.add(name)) continue;   // 継承が循環している壊れたjarでも止まるように
+            if (name.equals(type)) return true;
+            List<String> parents = supertypes.get(name + ".class");
+            if (parents != null) {
+                for (String parent : parents) {
+                    names.push(parent.substring(0, parent.length() - ".class".length()));
+                }
+            } else if (BUKKIT_SUPERTYPES.containsKey(name)) {
+                names.push(BUKKIT_SUPERTYPES.get(name));
+            } else {
+                Boolean loaded = isLoadedSubtype(name, type);
+                if (loaded == null) {
+                    unknown = true;
+                } else if (loaded) {
+                    return true;
+                }
+            }
+        }
+        return unknown ? null : Boolean.FALSE;
+    }
+
+    /**
+     * jarの外のクラス(URLClassLoader など)を、初期化せずにツールのJVMで読んで判定します。
+     *
+     * @return 読めない場合はnull
+     */
+    private static Boolean isLoadedSubtype(String name, String type) {
+        ClassLoader loader = ResourceCallRewriter.class.getClassLoader();
+        try {
+            Class<?> target = Class.forName(type.replace('/', '.'), false, loader);
+            return target.isAssignableFrom(Class.forName(name.replace('/', '.'), false, loader));
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    private static void skipMembers(ByteBuffer in) {
+        int members = in.getShort() & 0xffff;
+        for (int m = 0; m < members; m++) {
+            in.position(in.position() + 6);
+            int attributes = in.getShort() & 0xffff;
+            for (int a = 0; a < attributes; a++) {
+                in.getShort();
+                int length = in.getInt();
+                in.position(in.position() + length);
+            }
+        }
+    }
+
+    /**
+     * @param patches 置き換える命令の位置(クラスファイルの先頭から)と、置き換え先のメソッド参照を追加します
+     */
+    private static void findCalls(byte[] classFile, int start, int codeLength, int[] calls, Map<Integer, Integer> used,
+                                  List<int[]> patches) throws IOException {
+        int pc = 0;
+        while (pc < codeLength) {
+            int position = start + pc;
+            int opcode = classFile[position] & 0xff;
+            if (opcode == INVOKEVIRTUAL || opcode == INVOKEINTERFACE) {
+                int index = (classFile[position + 1] & 0xff) << 8 | (classFile[position + 2] & 0xff);
+                if (index < calls.length && calls[index] >= 0) patches.add(new int[]{position, used.get(calls[index])});
+            }
+            pc += instructionLength(classFile, start, pc, opcode);
+        }
+    }
+
+    private static int instructionLength(byte[] code, int start, int pc, int opcode) throws IOException {
+        switch (opcode) {
+            case 0x10:  // bipush
+            case 0x12:  // ldc
+            case 0x15: case 0x16: case 0x17: case 0x18: case 0x19:     // load
+            case 0x36: case 0x37: case 0x38: case 0x39: case 0x3a:     // store
+            case 0xa9:  // ret
+            case 0xbc:  // newarray
+                return 2;
+            case 0x11:  // sipush
+            case 0x13:  // ldc_w
+            case 0x14:  // ldc2_w
+            case 0x84:  // iinc
+            case 0xb2: case 0xb3: case 0xb4: case 0xb5:     // get/putfield, get/putstatic
+            case 0xb6: case 0xb7: case 0xb8:    // invokevirtual, invokespecial, invokestatic
+            case 0xbb:  // new
+            case 0xbd:  // anewarray
+            case 0xc0:  // checkcast
+            case 0xc1:  // instanceof
+            case 0xc6: case 0xc7:   // ifnull, ifnonnull
+                return 3;
+            case 0xc5:  // multianewarray
+                return 4;
+            case 0xb9:  // invokeinterface
+            case 0xba:  // invokedynamic
+            case 0xc8:  // goto_w
+            case 0xc9:  // jsr_w
+                return 5;
+            case 0xc4:  // wide
+                return (code[start + pc + 1] & 0xff) == 0x84 ? 6 : 4;
+            case 0xaa: {    // tableswitch
+                int base = start + pc + 1 + (3 - pc % 4);
+                int low = readInt(code, base + 4);
+                int high = readInt(code, base + 8);
+                return base - (start + pc) + 12 + 4 * (high - low + 1);
+            }
+            case 0xab: {    // lookupswitch
+                int base = start + pc + 1 + (3 - pc % 4);
+                int pairs = readInt(code, base + 4);
+                return base - (start + pc) + 8 + 8 * pairs;
+            }
+            default:
+                if (opcode >= 0x99 && opcode <= 0xa8) return 3;     // if*, goto, jsr
+                if (opcode <= 0xc3) return 1;
+                throw new IOException("未知の命令です。opcode=" + opcode + ", pc=" + pc);
+        }
+    }
+
+    private static int readInt(byte[] code, int position) {
+        return (code[position] & 0xff) << 24 | (code[position + 1] & 0xff) << 16 | (code[position + 2] & 0xff) << 8 | (code[position + 3] & 0xff);
+    }
+}
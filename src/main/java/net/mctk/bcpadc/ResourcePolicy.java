@@ -0,0 +1,77 @@
+package net.mctk.bcpadc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * クラスファイル以外に暗号化するリソースの選び方です。
+ * リソースはjarのエントリ名(lang/ja_JP.yml)に対するglobで指定します。
+ * "*" は / 以外の任意の文字列、"**" は / を含む任意の文字列で、先頭の "**&#47;" はディレクトリが無い場合にも一致します。
+ * plugin.yml、META-INF 以下、鍵やパックなど、PluginLoaderが起動前に読むエントリは指定しても暗号化しません。
+ * config.yml も暗号化しません。Bukkitの JavaPlugin.getConfig / reloadConfig は、ツールが書き換えられない
+ * Bukkit自身のコードから getResource で既定値を読むので、暗号化すると既定値が消えてしまうためです。
+ */
+public class ResourcePolicy {
+
+    /**
+     * Bukkitが既定の設定として読むリソース
+     */
+    public static final String CONFIG_YML = "config.yml";
+
+    private final List<String> globs = new ArrayList<String>();
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+    public void include(String glob) {
+        globs.add(glob);
+        patterns.add(compile(glob));
+    }
+
+    /**
+     * リソースを暗号化しない(従来と同じ)場合はtrue
+     */
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    /**
+     * @param entryName jarのエントリ名
+     * @return 暗号化する場合はtrue
+     */
+    public boolean isEncrypted(String entryName) {
+        return !isReserved(entryName) && matches(entryName);
+    }
+
+    /**
+     * @return 指定したglobのどれかに一致する場合はtrue(暗号化しないエントリも含めて判定します)
+     */
+    public boolean matches(String entryName) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(entryName).matches()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return 指定しても暗号化しないエントリの場合はtrue
+     */
+    static boolean isReserved(String entryName) {
+        if (entryName.endsWith("/") || entryName.endsWith(".class") || entryName.startsWith("META-INF/")) return true;
+        return entryName.equals(JobContext.PLUGIN_YML) || entryName.equals(CONFIG_YML) || entryName.equals(JobContext.KEY_FILE)
+                || entryName.equals(JobContext.DICTIONARY_FILE) || entryName.equals(JobContext.CLASS_PACK);
+    }
+
+    /**
+     * globを正規表現にします。
+     */
+    static Pattern compile(String glob) {
+        String g = glob.trim().replace('\\', '/');
+        if (g.startsWith("/")) g = g.substring(1);
+        return Glob.compile(g, '/');
+    }
+
+    @Override
+    public String toString() {
+        return "resources=" + globs;
+    }
+}
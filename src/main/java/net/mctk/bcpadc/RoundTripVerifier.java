@@ -0,0 +1,90 @@
+package net.mctk.bcpadc;
+
+import net.mctk.bcpadc.loader.LoaderLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 暗号化直後のメモリ上の暗号文を復号し、元のクラスファイルと一致するかを検証します。
+ * 検証モードは full(全件)、sampled N%(エントリ名のハッシュで決まるN%)、off(検証しない)です。
+ * 結果は最後に {@link #report()} でまとめてログに出力します。
+ */
+public class RoundTripVerifier {
+
+    private static final Pattern SAMPLED = Pattern.compile("(?:sampled(?::| +))?(\\d{1,3})%?");
+    private static final int MAX_REPORTED_FAILURES = 20;
+
+    private final int percent;
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger verified = new AtomicInteger();
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * @param percent 検証するエントリの割合(0～100)
+     */
+    public RoundTripVerifier(int percent) {
+        if (percent < 0 || percent > 100) throw new IllegalArgumentException("検証割合は0～100で指定してください。percent=" + percent);
+        this.percent = percent;
+    }
+
+    /**
+     * 検証モードの文字列から生成します。
+     *
+     * @param mode full, off, sampled N%(sampled:N, N%, N も可。Nは0～100)
+     */
+    public static RoundTripVerifier parse(String mode) {
+        String str = mode.trim().toLowerCase();
+        if (str.equals("full")) return new RoundTripVerifier(100);
+        if (str.equals("off")) return new RoundTripVerifier(0);
+        Matcher matcher = SAMPLED.matcher(str);
+        if (matcher.matches()) return new RoundTripVerifier(Integer.parseInt(matcher.group(1)));
+        throw new IllegalArgumentException("検証モードが不正です。mode=" + mode);
+    }
+
+    /**
+     * このエントリを検証するかどうかを返します。同じエントリ名なら毎回同じ結果になります。
+     */
+    public boolean shouldVerify(String name) {
+        total.incrementAndGet();
+        if (percent >= 100) return true;
+        if (percent <= 0) return false;
+        return (name.hashCode() & Integer.MAX_VALUE) % 100 < percent;
+    }
+
+    int getPercent() {
+        return percent;
+    }
+
+    public void record(String name, boolean success) {
+        verified.incrementAndGet();
+        if (!success) failures.add(name);
+    }
+
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * 検証結果の集計を1回だけ出力します。失敗が無ければINFO、あればERRORで、失敗したエントリも出力します。
+     */
+    public void report() {
+        if (percent <= 0) return;
+        String summary = "復号化テスト: " + verified.get() + "/" + total.get() + "件を検証, 失敗" + failures.size() + "件";
+        if (failures.isEmpty()) {
+            LoaderLog.info(summary);
+            return;
+        }
+        LoaderLog.error(summary);
+        List<String> sorted = new ArrayList<String>(failures);
+        Collections.sort(sorted);
+        for (int i = 0; i < sorted.size() && i < MAX_REPORTED_FAILURES; i++) {
+            LoaderLog.error("  " + sorted.get(i));
+        }
+        if (sorted.size() > MAX_REPORTED_FAILURES) LoaderLog.error("  ...他" + (sorted.size() - MAX_REPORTED_FAILURES) + "件");
+    }
+}
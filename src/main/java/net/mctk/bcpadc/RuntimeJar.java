@@ -0,0 +1,68 @@
+package net.mctk.bcpadc;
+
+import net.mctk.bcpadc.loader.SharedRuntime;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.opengion.fukurou.util.Closer;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * -shared-runtime で難読化したプラグインが使う、共有ランタイムのプラグインjarを書き出します。
+ * 中身はPluginLoaderのテンプレートのうちスタブ以外を net.mctk.bcpadc.runtime へ移したクラスと plugin.yml です。
+ * サーバーの plugins にはこのjarを1つだけ置きます。
+ */
+public final class RuntimeJar {
+
+    public static final String COMMAND = "cbpadc";
+
+    private RuntimeJar() {
+    }
+
+    /**
+     * @param outFile 出力先のjar
+     * @param version plugin.yml の version
+     */
+    public static void write(File outFile, String version) throws IOException {
+        ZipArchiveOutputStream zos = null;
+        try {
+            zos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)));
+            zos.setEncoding("utf-8");
+            putEntry(zos, JobContext.PLUGIN_YML, toPluginYml(version));
+            for (Map.Entry<String, byte[]> entry : LoaderTemplate.relocateRuntime().entrySet()) {
+                putEntry(zos, entry.getKey(), entry.getValue());
+            }
+            zos.finish();
+        } finally {
+            Closer.ioClose(zos);
+        }
+    }
+
+    /**
+     * 依存するプラグインより先に復号化を始められるように、load: STARTUP にします。
+     */
+    private static byte[] toPluginYml(String version) throws IOException {
+        Map<String, Object> command = new LinkedHashMap<String, Object>();
+        command.put("description", "show decryption metrics of the obfuscated plugins");
+        command.put("usage", "/" + COMMAND);
+        command.put("permission", COMMAND + ".metrics");
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("name", SharedRuntime.NAME);
+        map.put("version", version);
+        map.put("main", LoaderTemplate.getRuntimeMainClass());
+        map.put("load", "STARTUP");
+        map.put("commands", Collections.singletonMap(COMMAND, command));
+        return new Yaml().dumpAsMap(map).getBytes("utf-8");
+    }
+
+    private static void putEntry(ZipArchiveOutputStream zos, String name, byte[] bytes) throws IOException {
+        zos.putArchiveEntry(new ZipArchiveEntry(name));
+        zos.write(bytes);
+        zos.closeArchiveEntry();
+    }
+}
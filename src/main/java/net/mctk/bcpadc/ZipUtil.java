@@ -5,6 +5,7 @@ import org.apache.tools.zip.ZipFile;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.ZipException;
 
 /**
@@ -160,6 +161,172 @@ public class ZipUtil {
         return retList;
     }
 
+    /**
+     * 並列解凍で使うバッファのサイズ(スレッドごとに1つ)
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * zipファイルを複数のスレッドで解凍します。<br>
+     * セントラルディレクトリのエントリをサイズがほぼ均等になるようにスレッドへ振り分け、
+     * スレッドごとに別のZipFileを開いてランダムアクセスで読み出します。
+     * ディレクトリは解凍を始める前にまとめて作成します。
+     *
+     * @param zipFile   解凍するZIPファイル
+     * @param outputDir 解凍先ディレクトリ
+     * @param charset   文字コード(ファイル名またはディレクトリ名に使用される文字コード)
+     * @param threads   スレッド数(1以下の場合は unZip(File, File, String) と同じです)
+     * @return 出力ディレクトリ直下に解凍されたファイルまたディレクトリのリスト
+     * @throws IOException
+     */
+    public static List<File> unZip(final File zipFile, final File outputDir,
+                                   final String charset, final int threads) throws IOException {
+        if (threads <= 1) {
+            return unZip(zipFile, outputDir, charset);
+        }
+        return unZip(zipFile, outputDir, charset, threads, null);
+    }
+
+    /**
+     * zipファイルのうち、指定した名前のエントリだけを解凍します。<br>
+     * 書き換えないエントリを解凍せずに、元のZIPから圧縮済みのまま写す場合に使います。
+     * ディレクトリのエントリは作成せず、解凍するファイルの親ディレクトリだけを作成します。
+     *
+     * @param zipFile   解凍するZIPファイル
+     * @param outputDir 解凍先ディレクトリ
+     * @param charset   文字コード(ファイル名またはディレクトリ名に使用される文字コード)
+     * @param threads   スレッド数
+     * @param names     解凍するエントリ名(nullの場合は全てのエントリ)
+     * @return 出力ディレクトリ直下に解凍されたファイルまたディレクトリのリスト
+     * @throws IOException
+     */
+    public static List<File> unZip(final File zipFile, final File outputDir, final String charset,
+                                   final int threads, final Set<String> names) throws IOException {
+        if (charset == null || charset.isEmpty()) {
+            throw new IllegalArgumentException("引数(charset)がnullまたは空文字です。");
+        }
+
+        // 出力ディレクトリ直下のファイルまたディレクトリ
+        final Set<File> fileSet = new TreeSet<File>();
+        // 作成するディレクトリ
+        final Set<File> dirSet = new TreeSet<File>();
+        final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+
+        ZipFile zip = new ZipFile(zipFile, charset);
+        try {
+            final Enumeration<?> zipEnum = zip.getEntries();
+            while (zipEnum.hasMoreElements()) {
+                final ZipEntry entry = (ZipEntry) zipEnum.nextElement();
+                final String name = entry.getName();
+                if (names != null && (entry.isDirectory() || !names.contains(name))) continue;
+                final int slash = name.indexOf('/');
+                fileSet.add(new File(outputDir, slash < 0 || slash == name.length() - 1 ? name : name.substring(0, slash)));
+                if (entry.isDirectory()) {
+                    dirSet.add(new File(outputDir, name));
+                } else {
+                    dirSet.add(new File(outputDir, name).getParentFile());
+                    entries.add(entry);
+                }
+            }
+        } finally {
+            ZipFile.closeQuietly(zip);
+        }
+
+        for (File dir : dirSet) {
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("ディレクトリの生成に失敗しました。dir=" + dir);
+            }
+        }
+
+        final int workers = Math.max(1, threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final List<ZipEntry> part : partition(entries, workers)) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        extract(zipFile, charset, outputDir, part);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("解凍が中断されました。zipFile=" + zipFile, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("解凍に失敗しました。zipFile=" + zipFile, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new ArrayList<File>(fileSet);
+    }
+
+    /**
+     * 大きいエントリから順に、合計サイズが一番小さいスレッドへ割り当てます。
+     */
+    private static List<List<ZipEntry>> partition(final List<ZipEntry> entries, final int threads) {
+        final List<ZipEntry> sorted = new ArrayList<ZipEntry>(entries);
+        Collections.sort(sorted, new Comparator<ZipEntry>() {
+            @Override
+            public int compare(ZipEntry a, ZipEntry b) {
+                return Long.compare(Math.max(b.getSize(), 0), Math.max(a.getSize(), 0));
+            }
+        });
+        final List<List<ZipEntry>> parts = new ArrayList<List<ZipEntry>>();
+        final long[] sizes = new long[Math.min(threads, Math.max(1, sorted.size()))];
+        for (int i = 0; i < sizes.length; i++) {
+            parts.add(new ArrayList<ZipEntry>());
+        }
+        for (ZipEntry entry : sorted) {
+            int min = 0;
+            for (int i = 1; i < sizes.length; i++) {
+                if (sizes[i] < sizes[min]) min = i;
+            }
+            parts.get(min).add(entry);
+            sizes[min] += Math.max(entry.getSize(), 0) + 1;
+        }
+        return parts;
+    }
+
+    /**
+     * 自分用のZipFileを開き、割り当てられたエントリを書き出します。
+     */
+    private static void extract(final File zipFile, final String charset, final File outputDir,
+                                final List<ZipEntry> part) throws IOException {
+        final byte[] buf = new byte[BUFFER_SIZE];
+        final ZipFile zip = new ZipFile(zipFile, charset);
+        try {
+            for (ZipEntry entry : part) {
+                // 出力を先に開き、開けなかった場合に入力のストリームが残らないようにする
+                final OutputStream fos = new FileOutputStream(new File(outputDir, entry.getName()));
+                try {
+                    // エントリは開いたZipFileごとに別なので、名前で引き直す
+                    final InputStream is = zip.getInputStream(zip.getEntry(entry.getName()));
+                    try {
+                        int size;
+                        while ((size = is.read(buf)) != -1) {
+                            fos.write(buf, 0, size);
+                        }
+                    } finally {
+                        is.close();
+                    }
+                } finally {
+                    fos.close();
+                }
+            }
+        } finally {
+            ZipFile.closeQuietly(zip);
+        }
+    }
+
     /**
      * zipファイルを解凍します。
      *
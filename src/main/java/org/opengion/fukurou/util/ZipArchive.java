@@ -22,7 +22,12 @@ import org.apache.commons.compress.utils.IOUtils;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 // import java.util.zip.ZipEntry;
 // import java.util.zip.ZipInputStream;
@@ -51,6 +56,21 @@ import java.util.List;
  */
 public final class ZipArchive {
 
+    /**
+     * エントリごとの圧縮方法を決めるためのインターフェースです。
+     * 圧縮しても小さくならないエントリ(暗号化したデータや圧縮済みの画像など)を
+     * STOREDで格納することで、無駄な圧縮と展開の処理を省きます。
+     *
+     */
+    public interface CompressionPolicy {
+        /**
+         * @param entryName エントリ名
+         * @param data      エントリの内容
+         * @return ZipArchiveEntry.STORED 又は ZipArchiveEntry.DEFLATED
+         */
+        int getMethod(String entryName, byte[] data);
+    }
+
     /**
      * 全てスタティックメソッドのためインスタンスの作成を禁止します。
      */
@@ -177,6 +197,19 @@ public final class ZipArchive {
         return compress(files, zipFile, "Windows-31J");
     }
 
+    /**
+     * compress(File,File) の並列版です。エンコードは Windows-31J、圧縮レベルはデフォルトです。
+     *
+     * @param dir     圧縮対象のディレクトリか、ファイル
+     * @param zipFile ZIPファイル名
+     * @param threads 圧縮に使うスレッド数(1以下の場合は並列にしません)
+     * @return ZIPファイルのエントリーファイル名一覧
+     */
+    public static List<File> compress(final File dir, final File zipFile, final int threads) {
+        File[] files = dir.isDirectory() ? dir.listFiles() : new File[]{dir};
+        return compress(files, zipFile, "Windows-31J", Deflater.DEFAULT_COMPRESSION, null, threads);
+    }
+
     /**
      * 引数に指定されたファイル又はフィルダ内に存在するファイルをZIPファイルに圧縮します。
      * 圧縮レベルはデフォルトのDEFAULT_COMPRESSIONです。
@@ -219,6 +252,24 @@ public final class ZipArchive {
      * @og.rev 5.7.1.2 (2013/12/20) org.apache.commons.compress パッケージの利用(日本語ファイル名対応)
      */
     public static List<File> compress(final File[] files, final File zipFile, final String encording) {
+        return compress(files, zipFile, encording, Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    /**
+     * 引数に指定されたファイル又はフィルダ内に存在するファイルを、エントリごとに圧縮方法を選んでZIPファイルに圧縮します。
+     * 圧縮方法を指定した場合、ファイルの内容は一度メモリに読み込み、同じ読み込みでサイズとCRCを求めて登録します。
+     * STOREDのエントリはこれにより、データディスクリプタ無しで格納されます。
+     * 既にZIPファイルが存在する場合でも、上書きされますので注意下さい。
+     *
+     * @param files     圧縮対象のファイル配列
+     * @param zipFile   ZIPファイル名
+     * @param encording ファイルのエンコード(Windows環境では、"Windows-31J" を指定します)
+     * @param level     DEFLATEDのエントリの圧縮レベル(0～9、又は Deflater.DEFAULT_COMPRESSION)
+     * @param policy    エントリごとの圧縮方法(nullの場合は全てDEFLATEDで、サイズとCRCは登録しません)
+     * @return ZIPファイルのエントリーファイル名一覧
+     */
+    public static List<File> compress(final File[] files, final File zipFile, final String encording,
+                                      final int level, final CompressionPolicy policy) {
         List<File> list = new ArrayList<File>();
         ZipArchiveOutputStream zos = null;
 
@@ -227,9 +278,10 @@ public final class ZipArchive {
             if (encording != null) {
                 zos.setEncoding(encording);           // "Windows-31J"
             }
+            zos.setLevel(level);
 
             // ZIP圧縮処理を行います
-            addZipEntry(list, zos, "", files);   // 開始フォルダは、空文字列とします。
+            addZipEntry(list, zos, "", files, policy);   // 開始フォルダは、空文字列とします。
         } catch (FileNotFoundException ex) {
             String errMsg = "ZIPファイルが見つかりません。[ファイル名=" + zipFile + "]";
             throw new RuntimeException(errMsg, ex);
@@ -243,6 +295,192 @@ public final class ZipArchive {
         return list;
     }
 
+    /**
+     * 引数に指定されたファイル又はフィルダ内に存在するファイルを、複数のスレッドで圧縮してZIPファイルにします。
+     * 各エントリはスレッドプールでメモリ上に圧縮し(scatter)、サイズとCRCを付けて
+     * 圧縮済みのまま、シリアル版と同じ順番で1つのZIPファイルへ書き込みます(gather)。
+     * 書き込み待ちのエントリはスレッド数の数倍までに抑えるので、全ファイルをメモリに載せることはありません。
+     * 既にZIPファイルが存在する場合でも、上書きされますので注意下さい。
+     * <p>
+     * commons-compress の ParallelScatterZipCreator はスレッドごとにまとめて書き出すため
+     * エントリの順番が実行のたびに変わり、圧縮レベルも指定できないので使っていません。
+     *
+     * @param files     圧縮対象のファイル配列
+     * @param zipFile   ZIPファイル名
+     * @param encording ファイルのエンコード(Windows環境では、"Windows-31J" を指定します)
+     * @param level     DEFLATEDのエントリの圧縮レベル(0～9、又は Deflater.DEFAULT_COMPRESSION)
+     * @param policy    エントリごとの圧縮方法(nullの場合は全てDEFLATED)
+     * @param threads   圧縮に使うスレッド数(1以下の場合は並列にしません)
+     * @return ZIPファイルのエントリーファイル名一覧
+     */
+    public static List<File> compress(final File[] files, final File zipFile, final String encording,
+                                      final int level, final CompressionPolicy policy, final int threads) {
+        if (threads <= 1) return compress(files, zipFile, encording, level, policy);
+
+        ZipArchiveOutputStream zos = null;
+        try {
+            zos = new ZipArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
+            if (encording != null) {
+                zos.setEncoding(encording);
+            }
+            return compress(files, zos, level, policy, threads);
+        } catch (FileNotFoundException ex) {
+            String errMsg = "ZIPファイルが見つかりません。[ファイル名=" + zipFile + "]";
+            throw new RuntimeException(errMsg, ex);
+        } finally {
+            Closer.ioClose(zos);
+        }
+    }
+
+    /**
+     * 引数に指定されたファイル又はフィルダ内に存在するファイルを、呼び出し元が開いたZIP出力ストリームへ圧縮して追加します。
+     * ストリームは閉じないので、呼び出し元はこの後に別のエントリ(他のZIPからの生コピー等)を続けて書き込めます。
+     * スレッド数が2以上の場合は、compress(File[],File,String,int,CompressionPolicy,int) と同じく並列に圧縮します。
+     *
+     * @param files   圧縮対象のファイル配列
+     * @param zos     書き込み先のZIP出力ストリーム(エンコードは呼び出し元で設定済みのもの)
+     * @param level   DEFLATEDのエントリの圧縮レベル(0～9、又は Deflater.DEFAULT_COMPRESSION)
+     * @param policy  エントリごとの圧縮方法(nullの場合は全てDEFLATED)
+     * @param threads 圧縮に使うスレッド数(1以下の場合は並列にしません)
+     * @return ZIPファイルのエントリーファイル名一覧
+     */
+    public static List<File> compress(final File[] files, final ZipArchiveOutputStream zos,
+                                      final int level, final CompressionPolicy policy, final int threads) {
+        List<File> list = new ArrayList<File>();
+        zos.setLevel(level);
+        if (threads <= 1) {
+            addZipEntry(list, zos, "", files, policy);
+            return list;
+        }
+
+        List<String> names = new ArrayList<String>();
+        listEntries(list, names, "", files);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        File tmpFile = null;
+        try {
+            LinkedList<Future<ScatteredEntry>> pending = new LinkedList<Future<ScatteredEntry>>();
+            for (int i = 0; i < list.size(); i++) {
+                pending.add(executor.submit(new ScatterTask(list.get(i), names.get(i), level, policy)));
+                while (pending.size() > threads * 4) {
+                    tmpFile = list.get(i - pending.size() + 1);
+                    pending.removeFirst().get().writeTo(zos);
+                }
+            }
+            while (!pending.isEmpty()) {
+                tmpFile = list.get(list.size() - pending.size());
+                pending.removeFirst().get().writeTo(zos);
+            }
+        } catch (IOException ex) {
+            String errMsg = "ZIP圧縮に失敗しました。[ファイル名=" + tmpFile + "]";
+            throw new RuntimeException(errMsg, ex);
+        } catch (ExecutionException ex) {
+            String errMsg = "ZIP圧縮に失敗しました。[ファイル名=" + tmpFile + "]";
+            throw new RuntimeException(errMsg, ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("ZIP圧縮が中断されました。[ファイル名=" + tmpFile + "]", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return list;
+    }
+
+    /**
+     * addZipEntry と同じ順番で、圧縮対象のファイルとエントリ名を並べます。
+     */
+    private static void listEntries(final List<File> list, final List<String> names, final String prefix, final File[] files) {
+        for (File fi : files) {
+            if (fi.isDirectory()) {
+                String entryName = prefix + fi.getName() + "/";
+                list.add(fi);
+                names.add(entryName);
+                listEntries(list, names, entryName, fi.listFiles());
+            } else {
+                list.add(fi);
+                names.add(prefix + fi.getName());
+            }
+        }
+    }
+
+    /**
+     * 1つのエントリをメモリ上で圧縮します。
+     */
+    private static final class ScatterTask implements Callable<ScatteredEntry> {
+        private final File file;
+        private final String entryName;
+        private final int level;
+        private final CompressionPolicy policy;
+
+        ScatterTask(final File file, final String entryName, final int level, final CompressionPolicy policy) {
+            this.file = file;
+            this.entryName = entryName;
+            this.level = level;
+            this.policy = policy;
+        }
+
+        @Override
+        public ScatteredEntry call() throws IOException {
+            ZipArchiveEntry zae = new ZipArchiveEntry(entryName);
+            if (file.isDirectory()) {
+                return new ScatteredEntry(zae, null);
+            }
+
+            byte[] data;
+            InputStream is = new BufferedInputStream(new FileInputStream(file));
+            try {
+                data = IOUtils.toByteArray(is);
+            } finally {
+                Closer.ioClose(is);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            int method = policy == null ? ZipArchiveEntry.DEFLATED : policy.getMethod(entryName, data);
+            byte[] raw = method == ZipArchiveEntry.STORED ? data : deflate(data, level);
+            zae.setMethod(method);
+            zae.setSize(data.length);
+            zae.setCompressedSize(raw.length);
+            zae.setCrc(crc.getValue());
+            return new ScatteredEntry(zae, raw);
+        }
+
+        private static byte[] deflate(final byte[] data, final int level) throws IOException {
+            Deflater deflater = new Deflater(level, true);    // ZIPのエントリはヘッダ無しのDEFLATE
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+                DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater);
+                dos.write(data);
+                dos.finish();
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * 圧縮済みのエントリ。ディレクトリの場合は内容がnullです。
+     */
+    private static final class ScatteredEntry {
+        private final ZipArchiveEntry entry;
+        private final byte[] raw;
+
+        ScatteredEntry(final ZipArchiveEntry entry, final byte[] raw) {
+            this.entry = entry;
+            this.raw = raw;
+        }
+
+        void writeTo(final ZipArchiveOutputStream zos) throws IOException {
+            if (raw == null) {
+                zos.putArchiveEntry(entry);
+                zos.closeArchiveEntry();
+            } else {
+                zos.addRawArchiveEntry(entry, new ByteArrayInputStream(raw));
+            }
+        }
+    }
+
     /**
      * ZIP圧縮処理を行います。
      * 引数に指定されたFileオブジェクトがディレクトリであれば再帰的に呼び出し、
@@ -253,11 +491,13 @@ public final class ZipArchive {
      * @param zos    ZIP用OutputStream
      * @param prefix 圧縮時のフォルダ
      * @param files  圧縮対象のファイル配列
+     * @param policy エントリごとの圧縮方法(nullの場合は全てDEFLATED)
      * @throws IOException 入出力エラーが発生した場合
      * @og.rev 4.1.0.2 (2008/02/01) 新規追加
      * @og.rev 5.1.9.0 (2010/08/01) 更新時刻の設定 、BufferedInputStream のスコープを小さくする。
      */
-    private static void addZipEntry(final List<File> list, final ZipArchiveOutputStream zos, final String prefix, final File[] files) {
+    private static void addZipEntry(final List<File> list, final ZipArchiveOutputStream zos, final String prefix, final File[] files,
+                                    final CompressionPolicy policy) {
         File tmpFile = null;
         try {
             for (File fi : files) {
@@ -269,7 +509,14 @@ public final class ZipArchive {
                     zos.putArchiveEntry(zae);
                     zos.closeArchiveEntry();
 
-                    addZipEntry(list, zos, entryName, fi.listFiles());
+                    addZipEntry(list, zos, entryName, fi.listFiles(), policy);
+                } else if (policy != null) {
+                    InputStream is = new BufferedInputStream(new FileInputStream(fi));
+                    try {
+                        addEntry(zos, prefix + fi.getName(), IOUtils.toByteArray(is), policy);
+                    } finally {
+                        Closer.ioClose(is);
+                    }
                 } else {
                     String entryName = prefix + fi.getName();
                     ZipArchiveEntry zae = new ZipArchiveEntry(entryName);
@@ -289,19 +536,43 @@ public final class ZipArchive {
         }
     }
 
+    /**
+     * メモリ上のデータを1つのエントリとして追加します。
+     * サイズとCRCを先に登録するので、STOREDのエントリもデータディスクリプタ無しで書き込めます。
+     *
+     * @param zos       ZIP用OutputStream
+     * @param entryName エントリ名
+     * @param data      エントリの内容
+     * @param policy    エントリごとの圧縮方法(nullの場合はDEFLATED)
+     * @throws IOException 入出力エラーが発生した場合
+     */
+    public static void addEntry(final ZipArchiveOutputStream zos, final String entryName, final byte[] data,
+                                final CompressionPolicy policy) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ZipArchiveEntry zae = new ZipArchiveEntry(entryName);
+        zae.setMethod(policy == null ? ZipArchiveEntry.DEFLATED : policy.getMethod(entryName, data));
+        zae.setSize(data.length);
+        zae.setCrc(crc.getValue());
+        zos.putArchiveEntry(zae);
+        zos.write(data);
+        zos.closeArchiveEntry();
+    }
+
     /**
      * ファイルの圧縮または解凍を行います。
      *
      * @param args パラメータ
      * @og.rev 4.1.0.2 (2008/02/01) 新規追加
      * <p>
-     * Usage: java org.opengion.fukurou.util.ZipArchive comp|uncomp targetPath zipFileName
+     * Usage: java org.opengion.fukurou.util.ZipArchive comp|uncomp targetPath zipFileName [threads]
      * 第1引数 : comp:圧縮 uncomp:解凍
      * 第2引数 : ZIPファイル名
      * 第3引数 : 圧縮時:圧縮対象のファイル又はフォルダ 解凍時:解凍先のフォルダ
+     * 第4引数 : 圧縮時のスレッド数(省略時は1)
      */
     public static void main(final String[] args) {
-        String usage = "Usage: java org.opengion.fukurou.util.ZipArchive comp|uncomp targetPath zipFileName";
+        String usage = "Usage: java org.opengion.fukurou.util.ZipArchive comp|uncomp targetPath zipFileName [threads]";
         if (args.length < 3) {
             System.out.println(usage);
             return;
@@ -314,7 +585,8 @@ public final class ZipArchive {
         File tgtFile = new File(args[1]);
         File zipFile = new File(args[2]);
         if ("comp".equalsIgnoreCase(args[0])) {
-            list = compress(tgtFile, zipFile);
+            int threads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+            list = compress(tgtFile, zipFile, threads);
         } else if ("uncomp".equalsIgnoreCase(args[0])) {
             list = unCompress(tgtFile, zipFile);
         } else {
@@ -0,0 +1,209 @@
+package net.mctk.bcpadc.loader;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * クラスファイルの暗号化・復号化の方式です。難読化ツールとPluginLoaderで共有します。
+ * 方式は難読化時に選び、MANIFEST.MFの Cipher-Mode に記録します(無ければ従来の aes-ecb)。
+ * <p>
+ * aes-ecb 以外はエントリごとに違うIVを使い、暗号文の先頭に付けます。
+ * IVはエンジンごとにランダムな値から始め、先頭8バイトをエントリごとに1ずつ増やします。
+ * CTRではIVの後半8バイトがブロックのカウンタになるので、エントリ同士で鍵ストリームが重なりません。
+ * aes-gcm と chacha20 (ChaCha20-Poly1305) は認証付きなので、改ざんされた暗号文は復号化で失敗します。
+ * chacha20 はJava 11以降でしか使えません。鍵はKey.classのAESの鍵をSHA-256で256ビットにしたものです。
+ * <p>
+ * Cipherはスレッドごとに1つだけ生成して使い回します。IVを使う方式はエントリごとに初期化し直すだけです。
+ * <p>
+ * 暗号化したリソースは {@link #decrypt(InputStream)} で読みながら復号化します。リソースには常に aes-ctr を使います。
+ */
+public final class CipherEngine {
+
+    public enum Mode {
+        AES_ECB("aes-ecb", "AES", 0),
+        AES_CTR("aes-ctr", "AES/CTR/NoPadding", 16),
+        AES_GCM("aes-gcm", "AES/GCM/NoPadding", 12),
+        CHACHA20("chacha20", "ChaCha20-Poly1305", 12);
+
+        private final String name;
+        private final String transformation;
+        private final int ivLength;
+
+        Mode(String name, String transformation, int ivLength) {
+            this.name = name;
+            this.transformation = transformation;
+            this.ivLength = ivLength;
+        }
+
+        /**
+         * @param name aes-ecb, aes-ctr, aes-gcm, chacha20 のいずれか(大文字小文字は区別しません)
+         * @throws IllegalArgumentException 未知の方式の場合
+         */
+        public static Mode parse(String name) {
+            for (Mode mode : values()) {
+                if (mode.name.equalsIgnoreCase(name.trim())) return mode;
+            }
+            throw new IllegalArgumentException("暗号方式は aes-ecb, aes-ctr, aes-gcm, chacha20 のいずれかを指定してください。cipher=" + name);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTransformation() {
+            return transformation;
+        }
+
+        /**
+         * @return このJavaで使える場合はtrue
+         */
+        public boolean isSupported() {
+            try {
+                Cipher.getInstance(transformation);
+                return true;
+            } catch (GeneralSecurityException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Mode mode;
+    private final Key key;
+    private final byte[] ivBase;
+    private final AtomicLong ivCounter = new AtomicLong();
+    private final ThreadLocal<Cipher> encryptCipher = new ThreadLocal<Cipher>();
+    private final ThreadLocal<Cipher> decryptCipher = new ThreadLocal<Cipher>();
+
+    /**
+     * @param mode 暗号方式
+     * @param key  Key.classの鍵(AES)
+     */
+    public CipherEngine(Mode mode, Key key) {
+        if (key == null) throw new IllegalArgumentException("Keyがnullです。");
+        this.mode = mode;
+        this.key = mode == Mode.CHACHA20 ? deriveChaCha20Key(key) : key;
+        this.ivBase = new byte[mode.ivLength];
+        if (mode.ivLength > 0) new SecureRandom().nextBytes(ivBase);
+    }
+
+    private static Key deriveChaCha20Key(Key key) {
+        try {
+            return new SecretKeySpec(MessageDigest.getInstance("SHA-256").digest(key.getEncoded()), "ChaCha20");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return 暗号文(IVを使う方式ではIVの後に暗号文)
+     */
+    public byte[] encrypt(byte[] bytes) throws GeneralSecurityException {
+        try {
+            if (mode.ivLength == 0) return cipher(encryptCipher, Cipher.ENCRYPT_MODE).doFinal(bytes);
+            byte[] iv = nextIv();
+            Cipher cipher = cipher(encryptCipher, -1);
+            cipher.init(Cipher.ENCRYPT_MODE, key, parameter(iv));
+            // 出力先の配列を渡すdoFinalは、JavaのバージョンによってはGCMで極端に遅いので、IVは後から付ける
+            byte[] encrypted = cipher.doFinal(bytes);
+            byte[] out = new byte[iv.length + encrypted.length];
+            System.arraycopy(iv, 0, out, 0, iv.length);
+            System.arraycopy(encrypted, 0, out, iv.length, encrypted.length);
+            return out;
+        } catch (GeneralSecurityException e) {
+            encryptCipher.remove();     // 失敗したCipherは使い回さない
+            throw e;
+        }
+    }
+
+    /**
+     * @param payload {@link #encrypt(byte[])} の結果
+     * @return 平文
+     * @throws GeneralSecurityException 鍵や方式が違う場合、壊れている(改ざんされた)場合
+     */
+    public byte[] decrypt(byte[] payload) throws GeneralSecurityException {
+        try {
+            if (mode.ivLength == 0) return cipher(decryptCipher, Cipher.DECRYPT_MODE).doFinal(payload);
+            if (payload.length < mode.ivLength) throw new GeneralSecurityException("暗号文が短すぎます。");
+            Cipher cipher = cipher(decryptCipher, -1);
+            cipher.init(Cipher.DECRYPT_MODE, key, parameter(Arrays.copyOf(payload, mode.ivLength)));
+            return cipher.doFinal(payload, mode.ivLength, payload.length - mode.ivLength);
+        } catch (GeneralSecurityException e) {
+            decryptCipher.remove();
+            throw e;
+        }
+    }
+
+    /**
+     * 暗号文を読みながら復号化するストリームを返します。暗号文全体をメモリに載せることはありません。
+     * ストリームは読み終わるまで別のスレッドで使われることもあるので、Cipherはストリームごとに生成します。
+     * aes-gcm と chacha20 は改ざんを検出するまで平文を返せず、Cipherの中に全体を溜めるので、大きなデータには aes-ctr を使います。
+     *
+     * @param in {@link #encrypt(byte[])} の結果を読むストリーム(返したストリームを閉じると閉じます)
+     * @throws IOException IVを読めない場合
+     */
+    public InputStream decrypt(InputStream in) throws IOException, GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(mode.transformation);
+        if (mode.ivLength == 0) {
+            cipher.init(Cipher.DECRYPT_MODE, key);
+        } else {
+            byte[] iv = new byte[mode.ivLength];
+            new DataInputStream(in).readFully(iv);
+            cipher.init(Cipher.DECRYPT_MODE, key, parameter(iv));
+        }
+        return new CipherInputStream(in, cipher);
+    }
+
+    /**
+     * 先頭8バイトをビッグエンディアンの整数としてカウンタを足したIV
+     */
+    private byte[] nextIv() {
+        byte[] iv = ivBase.clone();
+        long high = 0;
+        for (int i = 0; i < 8; i++) high = high << 8 | (iv[i] & 0xff);
+        high += ivCounter.getAndIncrement();
+        for (int i = 7; i >= 0; i--) {
+            iv[i] = (byte) high;
+            high >>>= 8;
+        }
+        return iv;
+    }
+
+    /**
+     * @param initMode 生成時に初期化するモード(IVを使う方式では使うたびに初期化するので-1)
+     */
+    private Cipher cipher(ThreadLocal<Cipher> local, int initMode) throws GeneralSecurityException {
+        Cipher cipher = local.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(mode.transformation);
+            if (initMode >= 0) cipher.init(initMode, key);
+            local.set(cipher);
+        }
+        return cipher;
+    }
+
+    private AlgorithmParameterSpec parameter(byte[] iv) {
+        return mode == Mode.AES_GCM ? new GCMParameterSpec(128, iv) : new IvParameterSpec(iv);
+    }
+}
@@ -0,0 +1,73 @@
+package net.mctk.bcpadc.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 暗号化する前のクラスファイルを、プリセット辞書付きのDeflateで圧縮します。
+ * 圧縮した内容は、先頭4バイト(ビッグエンディアン)が元のサイズで、その後にzlib形式のデータが続きます。
+ * <p>
+ * 難読化ツールとPluginLoaderで共有し、PluginLoaderは復号化した後に {@link #inflate(byte[], byte[])} で戻します。
+ */
+public final class ClassCompression {
+
+    private ClassCompression() {
+    }
+
+    /**
+     * @param bytes      クラスファイル
+     * @param dictionary プリセット辞書
+     * @param deflater   使用するDeflater(呼び出し側で圧縮レベルを設定し、スレッドごとに使い回します)
+     * @return 圧縮した内容
+     */
+    public static byte[] deflate(byte[] bytes, byte[] dictionary, Deflater deflater) {
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        out.write(bytes.length >>> 24);
+        out.write(bytes.length >>> 16);
+        out.write(bytes.length >>> 8);
+        out.write(bytes.length);
+        byte[] buf = new byte[Math.max(512, bytes.length / 2)];
+        while (!deflater.finished()) {
+            int len = deflater.deflate(buf);
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param payload    {@link #deflate(byte[], byte[], Deflater)} で圧縮した内容
+     * @param dictionary 圧縮に使ったプリセット辞書
+     * @return 元のクラスファイル
+     * @throws DataFormatException 壊れている場合や辞書が違う場合
+     */
+    public static byte[] inflate(byte[] payload, byte[] dictionary) throws DataFormatException {
+        if (payload.length < 4) throw new DataFormatException("圧縮データが短すぎます。");
+        int size = (payload[0] & 0xff) << 24 | (payload[1] & 0xff) << 16 | (payload[2] & 0xff) << 8 | (payload[3] & 0xff);
+        byte[] bytes = new byte[size];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload, 4, payload.length - 4);
+            int off = 0;
+            while (off < size) {
+                int len = inflater.inflate(bytes, off, size - off);
+                if (len == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new DataFormatException("圧縮データが途中で終わっています。");
+                    }
+                }
+                off += len;
+            }
+            return bytes;
+        } finally {
+            inflater.end();
+        }
+    }
+}
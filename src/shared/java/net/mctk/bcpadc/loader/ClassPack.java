@@ -0,0 +1,135 @@
+package net.mctk.bcpadc.loader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * 暗号化したクラスファイルを1つにまとめたエントリ(パック)です。
+ * jarのエントリをクラスごとに開く代わりに、PluginLoaderはパックを1回だけ取り出してメモリマップし、
+ * 名前の二分探索でクラスの暗号文を引きます。
+ * <p>
+ * 形式(ビッグエンディアン):
+ * <pre>
+ * u4 magic ("CBPK")
+ * u2 version
+ * u4 count
+ * count回: u2 名前の長さ, 名前(UTF-8, エントリ名の昇順), u4 offset, u4 length
+ * 暗号文を連結したデータ(offsetはデータの先頭からの位置)
+ * </pre>
+ */
+public final class ClassPack {
+
+    public static final int MAGIC = 0x4342504B;
+    public static final int VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final String[] names;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int dataStart;
+
+    private ClassPack(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) throw new IOException("パックの形式が不正です。");
+        if ((buffer.getShort(4) & 0xffff) != VERSION) throw new IOException("パックのバージョンが違います。version=" + (buffer.getShort(4) & 0xffff));
+        int count = buffer.getInt(6);
+        names = new String[count];
+        offsets = new int[count];
+        lengths = new int[count];
+        int pos = 10;
+        for (int i = 0; i < count; i++) {
+            int nameLength = buffer.getShort(pos) & 0xffff;
+            byte[] name = new byte[nameLength];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(pos + 2);
+            dup.get(name);
+            names[i] = new String(name, "UTF-8");
+            pos += 2 + nameLength;
+            offsets[i] = buffer.getInt(pos);
+            lengths[i] = buffer.getInt(pos + 4);
+            pos += 8;
+        }
+        dataStart = pos;
+    }
+
+    /**
+     * パックのファイルを読み取り専用でメモリマップします。マップはファイルを閉じた後も有効です。
+     */
+    public static ClassPack map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ClassPack(mapped);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * メモリ上のパックを読みます。
+     */
+    public static ClassPack wrap(byte[] bytes) throws IOException {
+        return new ClassPack(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @return エントリ名(昇順)
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public boolean contains(String name) {
+        return Arrays.binarySearch(names, name) >= 0;
+    }
+
+    /**
+     * @return 暗号文(無い場合はnull)
+     */
+    public byte[] get(String name) {
+        int index = Arrays.binarySearch(names, name);
+        if (index < 0) return null;
+        byte[] bytes = new byte[lengths[index]];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(dataStart + offsets[index]);
+        dup.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * パックを書き出します。
+     *
+     * @param classes エントリ名と暗号文(エントリ名の昇順)
+     */
+    public static void write(SortedMap<String, byte[]> classes, OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(classes.size());
+        int offset = 0;
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            byte[] name = entry.getKey().getBytes("UTF-8");
+            out.writeShort(name.length);
+            out.write(name);
+            out.writeInt(offset);
+            out.writeInt(entry.getValue().length);
+            offset += entry.getValue().length;
+        }
+        for (byte[] bytes : classes.values()) {
+            out.write(bytes);
+        }
+        out.flush();
+    }
+}
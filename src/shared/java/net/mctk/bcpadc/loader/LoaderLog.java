@@ -0,0 +1,194 @@
+package net.mctk.bcpadc.loader;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * 難読化ツールとPluginLoaderで共有する、レベル付きの非同期ログです。
+ * 呼び出し側はメッセージを上限付きのバッファに入れるだけで、出力は専用のスレッドが行います。
+ * バッファが一杯のときは待たずに捨て、捨てた件数を後で出力します(ERRORだけはその場で出力します)。
+ * <p>
+ * PluginLoaderのテンプレートにも含まれ、プラグインのパッケージへ移されるので、
+ * Bukkitには依存せず、プラグインごとに別々の状態を持ちます。
+ * レベルはシステムプロパティ cbpadc.log (error, warn, info, debug, trace) でも変えられます。
+ */
+public final class LoaderLog {
+
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG, TRACE
+    }
+
+    private static final int CAPACITY = 1024;
+
+    private static final BlockingQueue<Record> queue = new ArrayBlockingQueue<Record>(CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile Level level = Level.WARN;
+    private static volatile PrintStream out = System.out;
+    private static volatile Logger logger;
+    private static volatile Thread writer;
+
+    static {
+        String property = System.getProperty("cbpadc.log");
+        if (property != null) {
+            try {
+                level = parse(property);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    private LoaderLog() {
+    }
+
+    /**
+     * @throws IllegalArgumentException 不明なレベルの場合
+     */
+    public static Level parse(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("ログレベルが不正です。level=" + name);
+        }
+    }
+
+    /**
+     * システムプロパティで指定されていない場合だけ、既定のレベルを設定します。
+     */
+    public static void setDefaultLevel(Level defaultLevel) {
+        if (System.getProperty("cbpadc.log") == null) level = defaultLevel;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * 出力先をjava.util.loggingのLoggerにします(サーバーではプラグインのLogger)。
+     */
+    public static void setLogger(Logger newLogger) {
+        logger = newLogger;
+    }
+
+    public static void setOutput(PrintStream newOut) {
+        out = newOut;
+    }
+
+    public static boolean isEnabled(Level target) {
+        return target.compareTo(level) <= 0;
+    }
+
+    public static boolean isDebug() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void trace(String message) {
+        log(Level.TRACE, message);
+    }
+
+    public static void log(Level target, String message) {
+        if (!isEnabled(target)) return;
+        Record record = new Record(target, message);
+        if (queue.offer(record)) {
+            if (writer == null) startWriter();
+        } else if (target == Level.ERROR) {
+            write(record);
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * バッファに残っているログを出力し、出力用のスレッドを止めます。
+     * 止めた後にログを出すと、スレッドはまた起動されます。
+     */
+    public static void close() {
+        Thread thread;
+        synchronized (LoaderLog.class) {
+            thread = writer;
+            writer = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) return;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        write(queue.take());
+                        drain();
+                    }
+                } catch (InterruptedException e) {
+                    // closeで止められた
+                }
+            }
+        }, "cbpadc-log");
+        thread.setDaemon(true);
+        thread.start();
+        writer = thread;
+    }
+
+    private static void drain() {
+        Record record;
+        while ((record = queue.poll()) != null) {
+            write(record);
+        }
+        long count = dropped.getAndSet(0);
+        if (count > 0) write(new Record(Level.WARN, "ログのバッファが一杯のため" + count + "件を破棄しました"));
+    }
+
+    private static void write(Record record) {
+        Logger target = logger;
+        if (target == null) {
+            out.println(record.level == Level.INFO ? record.message : "[" + record.level + "] " + record.message);
+        } else if (record.level == Level.ERROR) {
+            target.severe(record.message);
+        } else if (record.level == Level.WARN) {
+            target.warning(record.message);
+        } else {
+            // サーバーのコンソールはFINE以下を出さないので、DEBUGとTRACEもINFOで出します
+            target.info(record.level == Level.INFO ? record.message : "[" + record.level + "] " + record.message);
+        }
+    }
+
+    private static class Record {
+        final Level level;
+        final String message;
+
+        Record(Level level, String message) {
+            this.level = level;
+            this.message = message;
+        }
+    }
+}
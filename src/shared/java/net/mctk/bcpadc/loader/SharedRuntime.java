@@ -0,0 +1,16 @@
+package net.mctk.bcpadc.loader;
+
+/**
+ * 共有ランタイム(-shared-runtime)のプラグインの情報です。
+ * 難読化ツールが書く plugin.yml と、テンプレートの DecryptRuntime と PluginStub が同じ値を使うように、ここにだけ置きます。
+ */
+public final class SharedRuntime {
+
+    /**
+     * 共有ランタイムの plugin.yml の name(スタブの depend に書きます)
+     */
+    public static final String NAME = "CBPADCRuntime";
+
+    private SharedRuntime() {
+    }
+}
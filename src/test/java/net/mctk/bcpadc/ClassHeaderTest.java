@@ -0,0 +1,130 @@
+package net.mctk.bcpadc;
+
+import net.mctk.bcpadc.testdata.order.*;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ClassHeaderTest {
+
+    private static final Class<?>[] FIXTURES = {
+            OrderLeaf.class, OrderBase.class, OrderMarker.class, OrderApi.class, OrderRoot.class};
+
+    /**
+     * 親に任せずに、渡された順番でしか定義しないClassLoader。まだ定義していないクラスを参照すると定義に失敗します。
+     */
+    private static final class StrictLoader extends ClassLoader {
+
+        private final Set<String> names = new HashSet<String>();
+
+        StrictLoader(Collection<Class<?>> types) {
+            super(ClassHeaderTest.class.getClassLoader());
+            for (Class<?> type : types) names.add(type.getName());
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!names.contains(name)) return super.loadClass(name, resolve);
+            Class<?> type = findLoadedClass(name);
+            if (type == null) throw new ClassNotFoundException("まだ定義していません。" + name);
+            return type;
+        }
+    }
+
+    private static Map<String, List<String>> map(String... entries) {
+        Map<String, List<String>> supertypes = new HashMap<String, List<String>>();
+        for (String entry : entries) {
+            String[] names = entry.split("[ >,]+");
+            supertypes.put(names[0], Arrays.asList(names).subList(1, names.length));
+        }
+        return supertypes;
+    }
+
+    @Test
+    public void supertypesReadsSuperclassAndInterfaces() throws Exception {
+        assertEquals(Arrays.asList("net/mctk/bcpadc/testdata/order/OrderBase.class", "net/mctk/bcpadc/testdata/order/OrderMarker.class"),
+                ClassHeader.supertypes(TestClasses.bytes(OrderLeaf.class)));
+        assertEquals(Arrays.asList("java/lang/Object.class", "net/mctk/bcpadc/testdata/order/OrderRoot.class"),
+                ClassHeader.supertypes(TestClasses.bytes(OrderApi.class)));
+    }
+
+    @Test
+    public void orderDefinesSupertypesFirst() throws Exception {
+        Map<String, byte[]> classFiles = new HashMap<String, byte[]>();
+        Map<String, List<String>> supertypes = new HashMap<String, List<String>>();
+        for (Class<?> fixture : FIXTURES) {
+            byte[] classFile = TestClasses.bytes(fixture);
+            classFiles.put(TestClasses.entryName(fixture), classFile);
+            supertypes.put(TestClasses.entryName(fixture), ClassHeader.supertypes(classFile));
+        }
+        List<String> order = ClassHeader.order(supertypes);
+        assertEquals(FIXTURES.length, order.size());
+
+        StrictLoader loader = new StrictLoader(Arrays.asList(FIXTURES));
+        Class<?> leaf = null;
+        for (String entry : order) {
+            String name = entry.substring(0, entry.length() - ".class".length()).replace('/', '.');
+            Class<?> type = loader.define(name, classFiles.get(entry));
+            if (name.equals(OrderLeaf.class.getName())) leaf = type;
+        }
+        assertNotNull(leaf);
+        assertEquals("OrderLeaf", leaf.getMethod("name").invoke(leaf.newInstance()));
+    }
+
+    @Test
+    public void orderIgnoresMissingSupertypes() {
+        assertEquals(Arrays.asList("B.class", "A.class"),
+                ClassHeader.order(map("A.class > java/lang/Object.class, B.class, Missing.class", "B.class > org/bukkit/plugin/java/JavaPlugin.class")));
+    }
+
+    @Test
+    public void orderUsesEntryNamesForTies() {
+        assertEquals(Arrays.asList("a/A.class", "a/B.class", "a/C.class"),
+                ClassHeader.order(map("a/C.class", "a/A.class", "a/B.class")));
+        assertEquals(Arrays.asList("I.class", "J.class", "X.class", "Y.class"),
+                ClassHeader.order(map("Y.class > X.class, J.class", "X.class > I.class", "J.class > I.class", "I.class")));
+    }
+
+    @Test(timeout = 10000)
+    public void orderTerminatesOnCycles() {
+        List<String> order = ClassHeader.order(map("A.class > B.class", "B.class > C.class", "C.class > A.class", "D.class > D.class, A.class"));
+        assertEquals(new HashSet<String>(Arrays.asList("A.class", "B.class", "C.class", "D.class")), new HashSet<String>(order));
+        assertEquals(4, order.size());
+        assertEquals("D.class", order.get(3));
+    }
+
+    @Test
+    public void orderHandlesDeepHierarchies() {
+        Map<String, List<String>> supertypes = new HashMap<String, List<String>>();
+        int depth = 100000;
+        supertypes.put("C0.class", Collections.<String>emptyList());
+        for (int i = 1; i < depth; i++) {
+            supertypes.put("C" + i + ".class", Collections.singletonList("C" + (i - 1) + ".class"));
+        }
+        List<String> order = ClassHeader.order(supertypes);
+        assertEquals(depth, order.size());
+        for (int i = 0; i < depth; i++) {
+            assertEquals("C" + i + ".class", order.get(i));
+        }
+    }
+
+    @Test
+    public void packageInfoDefinesAnEmptyInterface() throws Exception {
+        byte[] classFile = ClassHeader.packageInfo("com/example/pkg/");
+        assertEquals(Arrays.asList("java/lang/Object.class"), ClassHeader.supertypes(classFile));
+        Class<?> type = new TestClasses.Loader().add("com/example/pkg/package-info", classFile).loadClass("com.example.pkg.package-info");
+        assertTrue(type.isInterface());
+        assertTrue(type.isSynthetic());
+        assertEquals("com.example.pkg.package-info", type.getName());
+        assertEquals(0, type.getDeclaredMethods().length);
+
+        Class<?> unnamed = new TestClasses.Loader().add("package-info", ClassHeader.packageInfo("")).loadClass("package-info");
+        assertTrue(unnamed.isInterface());
+    }
+}
@@ -0,0 +1,84 @@
+package net.mctk.bcpadc;
+
+import net.mctk.bcpadc.testdata.reloc.RelocFixture;
+import net.mctk.bcpadc.testdata.reloc.RelocFixtureOther;
+import net.mctk.bcpadc.testdata.reloc.RelocPart;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ClassRelocatorTest {
+
+    private static final String FROM = "net/mctk/bcpadc/testdata/reloc/";
+    private static final String TO = "com/example/moved/";
+    private static final Class<?>[] FIXTURES = {
+            RelocFixture.class, RelocFixture.Nested.class, RelocFixtureOther.class, RelocPart.class, RelocPart.Kind.class};
+
+    @Test
+    public void relocatedPackageLoadsAndRuns() throws Exception {
+        TestClasses.Loader loader = new TestClasses.Loader();
+        for (Class<?> fixture : FIXTURES) {
+            String name = TO + fixture.getName().substring(FROM.length()).replace('.', '/');
+            loader.add(name, ClassRelocator.relocate(TestClasses.bytes(fixture), FROM, TO));
+        }
+        Class<?> moved = loader.loadClass("com.example.moved.RelocFixture");
+        Object fixture = moved.getConstructor(int.class).newInstance(6);
+
+        assertEquals(24, moved.getMethod("sum").invoke(fixture));
+        Map<?, ?> index = (Map<?, ?>) moved.getMethod("index").invoke(fixture);
+        assertEquals("com.example.moved.RelocPart$Kind", index.keySet().iterator().next().getClass().getName());
+        // ジェネリクスのシグネチャも移っている
+        assertEquals("java.util.Map<com.example.moved.RelocPart$Kind, java.util.List<com.example.moved.RelocPart>>",
+                moved.getMethod("index").getGenericReturnType().toString());
+        assertEquals("java.lang.Enum<com.example.moved.RelocPart$Kind>",
+                loader.loadClass("com.example.moved.RelocPart$Kind").getGenericSuperclass().toString());
+        // クラス名と同じ文字列リテラルはそのまま
+        assertEquals(RelocFixture.SELF_NAME, moved.getMethod("selfName").invoke(null));
+        assertEquals(RelocFixture.PACKAGE_NAME, moved.getMethod("packageName").invoke(null));
+    }
+
+    @Test
+    public void relocatedClassKeepsNeighbours() throws Exception {
+        String from = FROM + "RelocFixture";
+        String to = "com/example/Moved";
+        TestClasses.Loader loader = new TestClasses.Loader()
+                .add(to, ClassRelocator.relocate(TestClasses.bytes(RelocFixture.class), from, to))
+                .add(to + "$Nested", ClassRelocator.relocate(TestClasses.bytes(RelocFixture.Nested.class), from, to));
+        Class<?> moved = loader.loadClass("com.example.Moved");
+        Object fixture = moved.getConstructor(int.class).newInstance(6);
+
+        // RelocFixtureOther と RelocPart は親のClassLoaderの元のクラスを使う
+        assertEquals(24, moved.getMethod("sum").invoke(fixture));
+        assertEquals(Arrays.asList("com.example.Moved$Nested"), Arrays.asList(moved.getDeclaredClasses()[0].getName()));
+        assertSame(RelocPart.Kind.class, ((Map<?, ?>) moved.getMethod("index").invoke(fixture)).keySet().iterator().next().getClass());
+
+        byte[] other = TestClasses.bytes(RelocFixtureOther.class);
+        assertArrayEquals(other, ClassRelocator.relocate(other, from, to));
+    }
+
+    @Test
+    public void relocateNameMatchesOnClassBoundary() {
+        String stub = "net/mctk/bcpadc/loader/PluginStub";
+        assertEquals("a/Loader", ClassRelocator.relocateName(stub, stub, "a/Loader"));
+        assertEquals("a/Loader$1", ClassRelocator.relocateName(stub + "$1", stub, "a/Loader"));
+        assertEquals(stub + "s", ClassRelocator.relocateName(stub + "s", stub, "a/Loader"));
+        assertEquals("b/c/PluginStub", ClassRelocator.relocateName(stub, "net/mctk/bcpadc/loader/", "b/c/"));
+        assertEquals("PluginStub", ClassRelocator.relocateName(stub, "net/mctk/bcpadc/loader/", ""));
+        assertEquals("net/mctk/bcpadc/loaders/X", ClassRelocator.relocateName("net/mctk/bcpadc/loaders/X", "net/mctk/bcpadc/loader/", ""));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonClassFile() throws IOException {
+        ClassRelocator.relocate(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, FROM, TO);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedClassFile() throws IOException {
+        byte[] classFile = TestClasses.bytes(RelocFixture.class);
+        ClassRelocator.relocate(Arrays.copyOf(classFile, classFile.length / 2), FROM, TO);
+    }
+}
@@ -0,0 +1,143 @@
+package net.mctk.bcpadc;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class EncryptionPolicyTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void emptyPolicyEncryptsAll() {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        assertTrue(policy.isEncryptAll());
+        assertTrue(policy.isEncrypted("com/example/Foo.class", 100));
+        assertTrue(policy.isEncrypted("Foo.class", -1));
+    }
+
+    @Test
+    public void singleStarStaysInOnePackage() {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        policy.exclude("com.example.*");
+        assertFalse(policy.isEncryptAll());
+        assertFalse(policy.isEncrypted("com/example/X.class", -1));
+        assertFalse(policy.isEncrypted("com/example/X$Inner.class", -1));
+        assertTrue(policy.isEncrypted("com/example/sub/X.class", -1));
+        assertTrue(policy.isEncrypted("com/examples/X.class", -1));
+    }
+
+    @Test
+    public void doubleStarCrossesPackages() {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        policy.exclude("com.example.api.**");
+        assertFalse(policy.isEncrypted("com/example/api/Api.class", -1));
+        assertFalse(policy.isEncrypted("com/example/api/event/Event.class", -1));
+        assertTrue(policy.isEncrypted("com/example/Main.class", -1));
+        assertTrue(policy.isEncrypted("com/example/apis/Api.class", -1));
+    }
+
+    @Test
+    public void leadingDoubleStarMatchesTopLevelPackage() {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        policy.exclude("**.shaded.**");
+        assertFalse(policy.isEncrypted("shaded/Foo.class", -1));
+        assertFalse(policy.isEncrypted("com/example/shaded/gson/Gson.class", -1));
+        assertTrue(policy.isEncrypted("com/example/unshaded/Foo.class", -1));
+        assertTrue(policy.isEncrypted("com/example/Shaded.class", -1));
+    }
+
+    @Test
+    public void globIsNormalized() {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        policy.exclude(" com/example/Foo ");
+        policy.exclude("com.example.Bar?");
+        assertFalse(policy.isEncrypted("com/example/Foo.class", -1));
+        assertTrue(policy.isEncrypted("comXexample/Foo.class", -1));
+        assertFalse(policy.isEncrypted("com/example/Bar1.class", -1));
+        assertTrue(policy.isEncrypted("com/example/Bar.class", -1));
+        assertTrue(policy.isEncrypted("com/example/Bar/X.class", -1));
+    }
+
+    @Test
+    public void excludeWinsOverInclude() {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        policy.include("com.example.**");
+        policy.exclude("com.example.api.**");
+        assertTrue(policy.isEncrypted("com/example/Main.class", -1));
+        assertFalse(policy.isEncrypted("com/example/api/Api.class", -1));
+        assertFalse(policy.isEncrypted("org/other/Lib.class", -1));
+    }
+
+    @Test
+    public void shadedLibsPreset() {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        policy.setShadedLibs(true);
+        assertFalse(policy.isEncryptAll());
+        assertFalse(policy.isEncrypted("kotlin/Unit.class", -1));
+        assertFalse(policy.isEncrypted("com/google/gson/Gson.class", -1));
+        assertFalse(policy.isEncrypted("org/bstats/bukkit/Metrics.class", -1));
+        assertFalse(policy.isEncrypted("com/example/libs/hikari/HikariConfig.class", -1));
+        assertFalse(policy.isEncrypted("relocated/Lib.class", -1));
+        assertTrue(policy.isEncrypted("com/google/Other.class", -1));
+        assertTrue(policy.isEncrypted("com/example/Main.class", -1));
+        // 無効にしても一度加えた除外は残る
+        policy.setShadedLibs(false);
+        assertFalse(policy.isEncrypted("kotlin/Unit.class", -1));
+    }
+
+    @Test
+    public void sizeRange() {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        policy.setMinSize(100);
+        policy.setMaxSize(1000);
+        assertFalse(policy.isEncryptAll());
+        assertFalse(policy.isEncrypted("Foo.class", 99));
+        assertTrue(policy.isEncrypted("Foo.class", 100));
+        assertTrue(policy.isEncrypted("Foo.class", 1000));
+        assertFalse(policy.isEncrypted("Foo.class", 1001));
+        assertTrue("サイズが不明なら判定しない", policy.isEncrypted("Foo.class", -1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMinSize() {
+        new EncryptionPolicy().setMinSize(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeMaxSize() {
+        new EncryptionPolicy().setMaxSize(-1);
+    }
+
+    @Test
+    public void loadYaml() throws IOException {
+        File file = folder.newFile("policy.yml");
+        FileUtils.writeStringToFile(file, "include: [com.example.**]\nexclude: com.example.api.**\nminSize: 10\nmaxSize: '2000'\nshadedLibs: true\n", "utf-8");
+        EncryptionPolicy policy = EncryptionPolicy.load(file);
+        assertTrue(policy.isEncrypted("com/example/Main.class", 10));
+        assertFalse(policy.isEncrypted("com/example/Main.class", 9));
+        assertFalse(policy.isEncrypted("com/example/Main.class", 2001));
+        assertFalse(policy.isEncrypted("com/example/api/Api.class", 100));
+        assertFalse(policy.isEncrypted("com/example/shaded/Lib.class", 100));
+        assertFalse(policy.isEncrypted("org/other/Lib.class", 100));
+    }
+
+    @Test
+    public void loadEmptyYaml() throws IOException {
+        assertTrue(EncryptionPolicy.load(folder.newFile("empty.yml")).isEncryptAll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void loadInvalidSize() throws IOException {
+        File file = folder.newFile("policy.yml");
+        FileUtils.writeStringToFile(file, "minSize: small\n", "utf-8");
+        EncryptionPolicy.load(file);
+    }
+}
@@ -0,0 +1,26 @@
+package net.mctk.bcpadc;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MetricsReportTest {
+
+    @Test
+    public void prometheusLabelsJobsByPath() {
+        JobMetrics first = new JobMetrics(new File("a", "plugin.jar"), new File("out", "plugin.jar"));
+        JobMetrics second = new JobMetrics(new File("b", "plugin.jar"), new File("out2", "plugin.jar"));
+        first.finish(true);
+        second.finish(false);
+        String text = MetricsReport.toPrometheus(Arrays.asList(first, second));
+        assertTrue(text, text.contains("cbpadc_job_success{jar=" + quote(new File("a", "plugin.jar")) + "} 1\n"));
+        assertTrue(text, text.contains("cbpadc_job_success{jar=" + quote(new File("b", "plugin.jar")) + "} 0\n"));
+    }
+
+    private static String quote(File file) {
+        return "\"" + file.getPath().replace("\\", "\\\\") + "\"";
+    }
+}
@@ -0,0 +1,114 @@
+package net.mctk.bcpadc;
+
+import net.mctk.bcpadc.testdata.resource.*;
+import org.bukkit.plugin.Plugin;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ResourceCallRewriterTest {
+
+    private static final String HELPER = "net/mctk/bcpadc/testdata/resource/ResourceHelper";
+    private static final String CALLS = "net/mctk/bcpadc/testdata/resource/ResourceCalls";
+    private static final Class<?>[] FIXTURES = {
+            ResourceCalls.class, ResourceHelper.class, NotPlugin.class, FixturePlugin.class, MysteryLoader.class};
+
+    @Before
+    public void clearCalls() {
+        ResourceHelper.CALLS.clear();
+    }
+
+    private static Map<String, List<String>> supertypes() throws Exception {
+        Map<String, List<String>> supertypes = new HashMap<String, List<String>>();
+        for (Class<?> fixture : FIXTURES) {
+            supertypes.put(TestClasses.entryName(fixture), ClassHeader.supertypes(TestClasses.bytes(fixture)));
+        }
+        return supertypes;
+    }
+
+    /**
+     * getResource には自分の値を返し、ほかのメソッドは何もしないPlugin
+     */
+    private static Plugin plugin() {
+        return (Plugin) Proxy.newProxyInstance(Plugin.class.getClassLoader(), new Class<?>[]{Plugin.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getResource")) return new ByteArrayInputStream(("proxy:" + args[0]).getBytes());
+                return null;
+            }
+        });
+    }
+
+    private static Object call(Class<?> type, String name, Object... args) throws Exception {
+        for (Method method : type.getMethods()) {
+            if (method.getName().equals(name)) return method.invoke(null, args);
+        }
+        throw new NoSuchMethodException(name);
+    }
+
+    @Test
+    public void rewrittenCallsRunThroughTheHelper() throws Exception {
+        Map<String, List<String>> supertypes = supertypes();
+        // 継承関係が分からないクラスの呼び出しは置き換えない
+        supertypes.put(TestClasses.entryName(MysteryLoader.class), Arrays.asList("com/example/Missing.class"));
+        ResourceCallRewriter rewriter = new ResourceCallRewriter(HELPER, supertypes);
+        byte[] rewritten = rewriter.rewrite(TestClasses.bytes(ResourceCalls.class));
+        assertEquals(9, rewriter.getRewritten());
+
+        // 書き換えたクラスをClassLoaderで定義すると検証されるので、invokeinterface の nop やStackMapTableも確かめられる
+        Class<?> calls = new TestClasses.Loader().add(CALLS, rewritten).loadClass(CALLS.replace('/', '.'));
+        assertNotSame(ResourceCalls.class, calls);
+
+        assertEquals("helper:pluginResource:config.yml,helper:pluginResource:lang.yml,helper:pluginResource:config.yml,",
+                call(calls, "plugin", plugin(), 3));
+        assertEquals("helper:pluginResource:plugin.yml", call(calls, "javaPlugin", (Object) null));
+        URLClassLoader loader = new URLClassLoader(new URL[0]);
+        assertEquals("helper:loaderResourceAsStream:a.txt|/helper/loaderResource:b.txt",
+                call(calls, "loaders", loader, getClass().getClassLoader()));
+        assertEquals("helper:classResourceAsStream:d.txt|/helper/classResource:c.txt", call(calls, "classes"));
+        assertEquals("own:n.txt", call(calls, "notPlugin", new NotPlugin()));
+        assertEquals("null", call(calls, "mystery", new MysteryLoader()));
+
+        assertEquals(Arrays.asList(
+                "pluginResource:config.yml", "pluginResource:lang.yml", "pluginResource:config.yml",
+                "saveResource:data.yml:true", "saveDefaultConfig",
+                "saveDefaultConfig", "pluginResource:plugin.yml",
+                "loaderResourceAsStream:a.txt", "loaderResource:b.txt",
+                "classResource:c.txt", "classResourceAsStream:d.txt",
+                "own:saveDefaultConfig"), ResourceHelper.CALLS);
+    }
+
+    @Test
+    public void originalCallsReachTheTarget() throws Exception {
+        assertEquals("proxy:config.yml,", ResourceCalls.plugin(plugin(), 1));
+        assertEquals(Collections.<String>emptyList(), ResourceHelper.CALLS);
+    }
+
+    @Test
+    public void subclassesInTheJarAreResolved() throws Exception {
+        ResourceCallRewriter rewriter = new ResourceCallRewriter(HELPER, supertypes());
+        byte[] rewritten = rewriter.rewrite(TestClasses.bytes(ResourceCalls.class));
+        assertEquals(10, rewriter.getRewritten());
+        Class<?> calls = new TestClasses.Loader().add(CALLS, rewritten).loadClass(CALLS.replace('/', '.'));
+        assertEquals("file:/helper/loaderResource:m.txt", call(calls, "mystery", new MysteryLoader()));
+    }
+
+    @Test
+    public void classesWithoutCallsAreReturnedAsIs() throws Exception {
+        ResourceCallRewriter rewriter = new ResourceCallRewriter(HELPER, supertypes());
+        for (Class<?> fixture : new Class<?>[]{ResourceHelper.class, NotPlugin.class, FixturePlugin.class}) {
+            byte[] classFile = TestClasses.bytes(fixture);
+            assertSame(fixture.getName(), classFile, rewriter.rewrite(classFile));
+        }
+        assertEquals(0, rewriter.getRewritten());
+    }
+}
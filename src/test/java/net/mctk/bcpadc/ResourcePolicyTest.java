@@ -0,0 +1,80 @@
+package net.mctk.bcpadc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResourcePolicyTest {
+
+    private static ResourcePolicy policy(String... globs) {
+        ResourcePolicy policy = new ResourcePolicy();
+        for (String glob : globs) policy.include(glob);
+        return policy;
+    }
+
+    @Test
+    public void emptyPolicyEncryptsNothing() {
+        ResourcePolicy policy = policy();
+        assertTrue(policy.isEmpty());
+        assertFalse(policy.isEncrypted("lang/ja.yml"));
+    }
+
+    @Test
+    public void singleStarStaysInOneDirectory() {
+        ResourcePolicy policy = policy("*.yml");
+        assertTrue(policy.isEncrypted("messages.yml"));
+        assertFalse(policy.isEncrypted("lang/ja.yml"));
+        assertFalse(policy.isEncrypted("messages.yaml"));
+    }
+
+    @Test
+    public void doubleStarCrossesDirectories() {
+        ResourcePolicy policy = policy("lang/**");
+        assertTrue(policy.isEncrypted("lang/ja.yml"));
+        assertTrue(policy.isEncrypted("lang/region/ja_JP.yml"));
+        assertFalse(policy.isEncrypted("language/ja.yml"));
+        assertFalse(policy.isEncrypted("data/lang/ja.yml"));
+    }
+
+    @Test
+    public void leadingDoubleStarMatchesWithoutDirectory() {
+        ResourcePolicy policy = policy("**/*.schem");
+        assertTrue(policy.isEncrypted("castle.schem"));
+        assertTrue(policy.isEncrypted("schematics/castle.schem"));
+        assertTrue(policy.isEncrypted("a/b/c/castle.schem"));
+        assertFalse(policy.isEncrypted("castle.schematic"));
+        assertFalse(policy.isEncrypted("xschematics.schem/readme.txt"));
+    }
+
+    @Test
+    public void questionMarkMatchesOneCharacter() {
+        ResourcePolicy policy = policy("lang/??.yml");
+        assertTrue(policy.isEncrypted("lang/ja.yml"));
+        assertFalse(policy.isEncrypted("lang/jpn.yml"));
+        assertFalse(policy.isEncrypted("lang/j/.yml"));
+    }
+
+    @Test
+    public void globIsNormalized() {
+        ResourcePolicy policy = policy(" /data\\*.bin ");
+        assertTrue(policy.isEncrypted("data/a.bin"));
+        // 正規表現の記号はそのまま比べる
+        assertFalse(policy("a.b").isEncrypted("axb"));
+        assertTrue(policy("a+b(1).txt").isEncrypted("a+b(1).txt"));
+    }
+
+    @Test
+    public void reservedEntriesAreNeverEncrypted() {
+        ResourcePolicy policy = policy("**");
+        assertTrue(policy.isEncrypted("lang/ja.yml"));
+        for (String name : new String[]{JobContext.PLUGIN_YML, ResourcePolicy.CONFIG_YML, JobContext.KEY_FILE,
+                JobContext.DICTIONARY_FILE, JobContext.CLASS_PACK, JobContext.MANIFEST, JobContext.ENCRYPTED_RESOURCES,
+                "META-INF/maven/pom.xml", "com/example/Foo.class", "lang/"}) {
+            assertFalse(name, policy.isEncrypted(name));
+            assertTrue(name, policy.matches(name));
+        }
+        // 予約されているのはjarの直下だけ
+        assertTrue(policy.isEncrypted("defaults/config.yml"));
+        assertTrue(policy.isEncrypted("defaults/plugin.yml"));
+    }
+}
@@ -0,0 +1,68 @@
+package net.mctk.bcpadc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RoundTripVerifierTest {
+
+    private static void assertInvalid(String mode) {
+        try {
+            RoundTripVerifier.parse(mode);
+            fail(mode);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void parseModes() {
+        assertEquals(100, RoundTripVerifier.parse("full").getPercent());
+        assertEquals(100, RoundTripVerifier.parse(" FULL ").getPercent());
+        assertEquals(0, RoundTripVerifier.parse("off").getPercent());
+        assertEquals(10, RoundTripVerifier.parse("sampled 10%").getPercent());
+        assertEquals(10, RoundTripVerifier.parse("sampled:10").getPercent());
+        assertEquals(10, RoundTripVerifier.parse("10%").getPercent());
+        assertEquals(10, RoundTripVerifier.parse("10").getPercent());
+        assertEquals(100, RoundTripVerifier.parse("sampled 100%").getPercent());
+    }
+
+    @Test
+    public void parseRejectsInvalidModes() {
+        assertInvalid("");
+        assertInvalid("on");
+        assertInvalid("sampled");
+        assertInvalid("sampled10%");
+        assertInvalid("sampled: 10%");
+        assertInvalid("sampled::10");
+        assertInvalid("sampled 10%%");
+        assertInvalid("101%");
+        assertInvalid("1000");
+        assertInvalid("-5");
+        assertInvalid("10 %");
+    }
+
+    @Test
+    public void fullAndOffIgnoreNames() {
+        RoundTripVerifier full = RoundTripVerifier.parse("full");
+        RoundTripVerifier off = RoundTripVerifier.parse("off");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(full.shouldVerify("a/B" + i + ".class"));
+            assertFalse(off.shouldVerify("a/B" + i + ".class"));
+        }
+    }
+
+    @Test
+    public void samplingDependsOnlyOnEntryName() {
+        RoundTripVerifier first = RoundTripVerifier.parse("sampled 10%");
+        RoundTripVerifier second = RoundTripVerifier.parse("sampled 10%");
+        int sampled = 0;
+        for (int i = 0; i < 10000; i++) {
+            String name = "com/example/C" + i + ".class";
+            boolean verify = first.shouldVerify(name);
+            assertEquals(name, verify, second.shouldVerify(name));
+            assertEquals(name, verify, first.shouldVerify(name));
+            if (verify) sampled++;
+        }
+        assertTrue("sampled=" + sampled, sampled > 800 && sampled < 1200);
+    }
+}
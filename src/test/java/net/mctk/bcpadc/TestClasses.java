@@ -0,0 +1,68 @@
+package net.mctk.bcpadc;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * テストで、コンパイル済みのクラスファイルを読み、書き換えたものを実際のClassLoaderで定義するためのクラスです。
+ */
+final class TestClasses {
+
+    private TestClasses() {
+    }
+
+    /**
+     * @return クラスファイルのエントリ名(com/example/Foo.class)
+     */
+    static String entryName(Class<?> type) {
+        return type.getName().replace('.', '/') + ".class";
+    }
+
+    static byte[] bytes(Class<?> type) throws IOException {
+        InputStream in = TestClasses.class.getClassLoader().getResourceAsStream(entryName(type));
+        if (in == null) throw new IOException("クラスファイルが見つかりません。" + type.getName());
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 渡したクラスだけは親に任せず自分で定義するClassLoaderです。
+     * テストのクラスパスにある同じ名前のクラスを、書き換えたクラスファイルで定義し直せます。
+     * HotSpotはブートストラップ以外のClassLoaderで定義したクラスを検証するので、StackMapTableなども確かめられます。
+     */
+    static final class Loader extends ClassLoader {
+
+        private final Map<String, byte[]> classes = new HashMap<String, byte[]>();
+
+        Loader() {
+            super(TestClasses.class.getClassLoader());
+        }
+
+        /**
+         * @param internalName クラス名(内部形式, com/example/Foo)
+         */
+        Loader add(String internalName, byte[] classFile) {
+            classes.put(internalName.replace('/', '.'), classFile);
+            return this;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            byte[] classFile = classes.get(name);
+            if (classFile == null) return super.loadClass(name, resolve);
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> type = findLoadedClass(name);
+                if (type == null) type = defineClass(name, classFile, 0, classFile.length);
+                if (resolve) resolveClass(type);
+                return type;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package net.mctk.bcpadc.loader;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class CipherEngineTest {
+
+    private static final Key KEY = new SecretKeySpec(new byte[]{
+            1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, "AES");
+
+    /**
+     * IVを使う方式と、暗号文の先頭に付くIVの長さ
+     */
+    private static final Map<CipherEngine.Mode, Integer> IV_LENGTHS = new EnumMap<CipherEngine.Mode, Integer>(CipherEngine.Mode.class);
+
+    static {
+        IV_LENGTHS.put(CipherEngine.Mode.AES_CTR, 16);
+        IV_LENGTHS.put(CipherEngine.Mode.AES_GCM, 12);
+        IV_LENGTHS.put(CipherEngine.Mode.CHACHA20, 12);
+    }
+
+    private static List<CipherEngine.Mode> supported() {
+        List<CipherEngine.Mode> modes = new ArrayList<CipherEngine.Mode>();
+        for (CipherEngine.Mode mode : CipherEngine.Mode.values()) {
+            if (mode.isSupported()) modes.add(mode);
+        }
+        return modes;
+    }
+
+    private static String iv(byte[] payload, int length) {
+        return new BigInteger(1, Arrays.copyOf(payload, length)).toString(16);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] plain = new byte[10000];
+        new Random(1).nextBytes(plain);
+        for (CipherEngine.Mode mode : supported()) {
+            CipherEngine engine = new CipherEngine(mode, KEY);
+            assertArrayEquals(mode.getName(), plain, engine.decrypt(engine.encrypt(plain)));
+            assertArrayEquals(mode.getName(), new byte[0], engine.decrypt(engine.encrypt(new byte[0])));
+            byte[] streamed = IOUtils.toByteArray(engine.decrypt(new ByteArrayInputStream(engine.encrypt(plain))));
+            assertArrayEquals(mode.getName(), plain, streamed);
+        }
+    }
+
+    @Test
+    public void ivIsUniquePerEntry() throws Exception {
+        for (CipherEngine.Mode mode : supported()) {
+            if (!IV_LENGTHS.containsKey(mode)) continue;
+            int length = IV_LENGTHS.get(mode);
+            CipherEngine engine = new CipherEngine(mode, KEY);
+            Set<String> ivs = new HashSet<String>();
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(mode.getName(), ivs.add(iv(engine.encrypt(new byte[16]), length)));
+            }
+            // エンジンごとにランダムな値から始める
+            assertFalse(mode.getName(), ivs.contains(iv(new CipherEngine(mode, KEY).encrypt(new byte[16]), length)));
+        }
+    }
+
+    @Test
+    public void ivIsUniqueAcrossThreads() throws Exception {
+        for (CipherEngine.Mode mode : supported()) {
+            if (!IV_LENGTHS.containsKey(mode)) continue;
+            final int length = IV_LENGTHS.get(mode);
+            final CipherEngine engine = new CipherEngine(mode, KEY);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+                for (int t = 0; t < 8; t++) {
+                    futures.add(executor.submit(new Callable<List<String>>() {
+                        @Override
+                        public List<String> call() throws GeneralSecurityException {
+                            List<String> ivs = new ArrayList<String>();
+                            for (int i = 0; i < 500; i++) ivs.add(iv(engine.encrypt(new byte[16]), length));
+                            return ivs;
+                        }
+                    }));
+                }
+                Set<String> ivs = new HashSet<String>();
+                for (Future<List<String>> future : futures) ivs.addAll(future.get());
+                assertEquals(mode.getName(), 8 * 500, ivs.size());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 0を暗号化した暗号文は鍵ストリームそのものなので、エントリ同士でブロックが1つも重ならないことを確かめます。
+     */
+    @Test
+    public void ctrKeystreamsDoNotOverlap() throws Exception {
+        CipherEngine engine = new CipherEngine(CipherEngine.Mode.AES_CTR, KEY);
+        Set<String> blocks = new HashSet<String>();
+        for (int i = 0; i < 200; i++) {
+            byte[] payload = engine.encrypt(new byte[64]);
+            for (int offset = 16; offset < payload.length; offset += 16) {
+                assertTrue(blocks.add(new BigInteger(1, Arrays.copyOfRange(payload, offset, offset + 16)).toString(16)));
+            }
+        }
+    }
+
+    @Test
+    public void ecbHasNoIv() throws Exception {
+        CipherEngine engine = new CipherEngine(CipherEngine.Mode.AES_ECB, KEY);
+        byte[] plain = "class file".getBytes("UTF-8");
+        assertEquals(16, engine.encrypt(plain).length);
+        assertArrayEquals(engine.encrypt(plain), new CipherEngine(CipherEngine.Mode.AES_ECB, KEY).encrypt(plain));
+    }
+
+    @Test
+    public void authenticatedModesRejectTampering() throws Exception {
+        for (CipherEngine.Mode mode : new CipherEngine.Mode[]{CipherEngine.Mode.AES_GCM, CipherEngine.Mode.CHACHA20}) {
+            if (!mode.isSupported()) continue;
+            CipherEngine engine = new CipherEngine(mode, KEY);
+            byte[] payload = engine.encrypt(new byte[100]);
+            payload[payload.length / 2] ^= 1;
+            try {
+                engine.decrypt(payload);
+                fail(mode.getName());
+            } catch (GeneralSecurityException expected) {
+                // 改ざんを検出した
+            }
+            // 失敗した後も同じスレッドで使える
+            assertArrayEquals(new byte[8], engine.decrypt(engine.encrypt(new byte[8])));
+        }
+    }
+
+    @Test
+    public void chaCha20WhereSupported() throws Exception {
+        assumeTrue(CipherEngine.Mode.CHACHA20.isSupported());
+        CipherEngine engine = new CipherEngine(CipherEngine.Mode.CHACHA20, KEY);
+        assertEquals(12 + 5 + 16, engine.encrypt(new byte[5]).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseRejectsUnknownMode() {
+        CipherEngine.Mode.parse("aes-cbc");
+    }
+}
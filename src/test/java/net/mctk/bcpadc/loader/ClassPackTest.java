@@ -0,0 +1,110 @@
+package net.mctk.bcpadc.loader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class ClassPackTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 前方一致する名前、大文字小文字だけ違う名前、マルチバイトの名前、255バイトを超える名前、中身の無いエントリ
+     */
+    private static SortedMap<String, byte[]> classes() {
+        StringBuilder longName = new StringBuilder("com/example/");
+        while (longName.length() < 400) longName.append("VeryLongName");
+        SortedMap<String, byte[]> classes = new TreeMap<String, byte[]>();
+        classes.put("com/example/A.class", bytes(1, 2, 3));
+        classes.put("com/example/A$1.class", bytes(4));
+        classes.put("com/example/AB.class", bytes(5, 6));
+        classes.put("com/example/a.class", bytes(7));
+        classes.put("com/example/日本語/クラス.class", bytes(8, 9, 10, 11));
+        classes.put(longName + ".class", bytes(12));
+        classes.put("Empty.class", new byte[0]);
+        return classes;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) bytes[i] = (byte) values[i];
+        return bytes;
+    }
+
+    private static byte[] write(SortedMap<String, byte[]> classes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClassPack.write(classes, out);
+        return out.toByteArray();
+    }
+
+    private static void assertPack(SortedMap<String, byte[]> classes, ClassPack pack) {
+        assertEquals(classes.size(), pack.size());
+        assertEquals(new ArrayList<String>(classes.keySet()), pack.getNames());
+        for (String name : classes.keySet()) {
+            assertTrue(name, pack.contains(name));
+            assertArrayEquals(name, classes.get(name), pack.get(name));
+        }
+        assertFalse(pack.contains("com/example/Missing.class"));
+        assertNull(pack.get("com/example/Missing.class"));
+        assertNull(pack.get("com/example/A"));
+    }
+
+    @Test
+    public void wrapReadsWhatWasWritten() throws IOException {
+        SortedMap<String, byte[]> classes = classes();
+        assertPack(classes, ClassPack.wrap(write(classes)));
+    }
+
+    @Test
+    public void mapReadsWhatWasWritten() throws IOException {
+        SortedMap<String, byte[]> classes = classes();
+        File file = folder.newFile("classes.pack");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            ClassPack.write(classes, out);
+        } finally {
+            out.close();
+        }
+        assertPack(classes, ClassPack.map(file));
+    }
+
+    @Test
+    public void emptyPack() throws IOException {
+        ClassPack pack = ClassPack.wrap(write(new TreeMap<String, byte[]>()));
+        assertEquals(0, pack.size());
+        assertNull(pack.get("A.class"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsWrongMagic() throws IOException {
+        byte[] bytes = write(classes());
+        bytes[0] ^= 1;
+        ClassPack.wrap(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsWrongVersion() throws IOException {
+        byte[] bytes = write(classes());
+        bytes[5] = (byte) (ClassPack.VERSION + 1);
+        ClassPack.wrap(bytes);
+    }
+
+    @Test
+    public void getReturnsCopies() throws IOException {
+        ClassPack pack = ClassPack.wrap(write(classes()));
+        pack.get("com/example/A.class")[0] = 99;
+        assertTrue(Arrays.equals(bytes(1, 2, 3), pack.get("com/example/A.class")));
+    }
+}
@@ -0,0 +1,137 @@
+package net.mctk.bcpadc.loader;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.*;
+
+public class EncryptedResourcesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CipherEngine engine = new CipherEngine(CipherEngine.Mode.AES_CTR,
+            new SecretKeySpec(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, "AES"));
+    private final byte[] big = new byte[5 * 1024 * 1024 + 3];
+    private EncryptedResources resources;
+    private URLClassLoader loader;
+
+    /**
+     * 難読化したjarと同じく、暗号化したリソースを {@link EncryptedResources#DIRECTORY} 以下に置いたjarを作ります。
+     * missing.yml は一覧にはあるが、jarには無いリソースです。
+     */
+    @Before
+    public void setUp() throws Exception {
+        new Random(1).nextBytes(big);
+        File jar = folder.newFile("plugin.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            put(out, EncryptedResources.DIRECTORY + "lang/ja.yml", engine.encrypt("hello: こんにちは".getBytes("UTF-8")));
+            put(out, EncryptedResources.DIRECTORY + "big.bin", engine.encrypt(big));
+            put(out, "plain.txt", "plain".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        resources = new EncryptedResources(new JarFile(jar), engine,
+                new HashSet<String>(Arrays.asList("lang/ja.yml", "big.bin", "missing.yml")));
+        loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+        resources.register(loader);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        resources.close(loader);
+        loader.close();
+    }
+
+    private static void put(JarOutputStream out, String name, byte[] bytes) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        assertNotNull(in);
+        try {
+            return new String(IOUtils.toByteArray(in), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void encryptedResourceIsDecryptedOnRead() throws IOException {
+        assertEquals("hello: こんにちは", read(EncryptedResources.loaderResourceAsStream(loader, "lang/ja.yml")));
+        URL url = EncryptedResources.loaderResource(loader, "lang/ja.yml");
+        assertEquals("cbpadc", url.getProtocol());
+        assertEquals("hello: こんにちは", read(url.openStream()));
+    }
+
+    @Test
+    public void largeResourceIsStreamed() throws Exception {
+        InputStream in = EncryptedResources.loaderResourceAsStream(loader, "big.bin");
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        long total = 0;
+        try {
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                digest.update(buf, 0, len);
+                total += len;
+            }
+        } finally {
+            in.close();
+        }
+        assertEquals(big.length, total);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(big), digest.digest());
+    }
+
+    @Test
+    public void otherResourcesUseTheOriginalLookup() throws IOException {
+        assertEquals("plain", read(EncryptedResources.loaderResourceAsStream(loader, "plain.txt")));
+        assertEquals("jar", EncryptedResources.loaderResource(loader, "plain.txt").getProtocol());
+        assertNull(EncryptedResources.loaderResourceAsStream(loader, "nothing.txt"));
+        // 一覧にあってもjarに無いものは読めない
+        assertNull(EncryptedResources.loaderResourceAsStream(loader, "missing.yml"));
+        // 登録していないローダーは元のメソッドだけ
+        URLClassLoader other = new URLClassLoader(new URL[0], null);
+        assertNull(EncryptedResources.loaderResourceAsStream(other, "lang/ja.yml"));
+        other.close();
+    }
+
+    @Test
+    public void closeUnregisters() throws IOException {
+        resources.close(loader);
+        assertNull(EncryptedResources.loaderResourceAsStream(loader, "lang/ja.yml"));
+    }
+
+    @Test
+    public void resolveNameFollowsClassGetResource() {
+        assertEquals("java/lang/a.txt", EncryptedResources.resolveName(String.class, "a.txt"));
+        assertEquals("java/lang/sub/a.txt", EncryptedResources.resolveName(String.class, "sub/a.txt"));
+        assertEquals("a.txt", EncryptedResources.resolveName(String.class, "/a.txt"));
+        assertEquals("lang/ja.yml", EncryptedResources.resolveName(String.class, "/lang/ja.yml"));
+        assertEquals("java/lang/a.txt", EncryptedResources.resolveName(String[][].class, "a.txt"));
+        assertEquals("java/util/a.txt", EncryptedResources.resolveName(Map.Entry.class, "a.txt"));
+        assertEquals("a.txt", EncryptedResources.resolveName(int.class, "a.txt"));
+        assertNull(EncryptedResources.resolveName(String.class, null));
+        assertEquals("a.txt", EncryptedResources.resolveName(null, "a.txt"));
+    }
+}
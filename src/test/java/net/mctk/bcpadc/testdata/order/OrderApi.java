@@ -0,0 +1,6 @@
+package net.mctk.bcpadc.testdata.order;
+
+public interface OrderApi extends OrderRoot {
+
+    String name();
+}
@@ -0,0 +1,9 @@
+package net.mctk.bcpadc.testdata.order;
+
+public abstract class OrderBase implements OrderApi {
+
+    @Override
+    public String name() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,4 @@
+package net.mctk.bcpadc.testdata.order;
+
+public class OrderLeaf extends OrderBase implements OrderMarker {
+}
@@ -0,0 +1,67 @@
+package net.mctk.bcpadc.testdata.reloc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ClassRelocatorTestで移動するクラスです。
+ * ジェネリクスのシグネチャ、ネストしたクラス、分岐とループ(StackMapTable)と、
+ * クラス名と同じ文字列リテラル(定数プールのUtf8をクラス名と共有する)を含みます。
+ */
+public class RelocFixture {
+
+    public static final String SELF_NAME = "net/mctk/bcpadc/testdata/reloc/RelocFixture";
+    public static final String PACKAGE_NAME = "net/mctk/bcpadc/testdata/reloc/";
+
+    private final List<RelocPart> parts = new ArrayList<RelocPart>();
+
+    public RelocFixture(int count) {
+        for (int i = 0; i < count; i++) {
+            parts.add(new RelocPart(i));
+        }
+    }
+
+    public Map<RelocPart.Kind, List<RelocPart>> index() {
+        Map<RelocPart.Kind, List<RelocPart>> index = new LinkedHashMap<RelocPart.Kind, List<RelocPart>>();
+        for (RelocPart part : parts) {
+            List<RelocPart> list = index.get(part.getKind());
+            if (list == null) index.put(part.getKind(), list = new ArrayList<RelocPart>());
+            list.add(part);
+        }
+        return index;
+    }
+
+    public int sum() {
+        int sum = 0;
+        for (RelocPart part : parts) {
+            if (part.getKind() == RelocPart.Kind.ODD) {
+                sum += RelocFixtureOther.twice(part.getValue());
+            } else {
+                sum += new Nested(part).value();
+            }
+        }
+        return sum;
+    }
+
+    public static String selfName() {
+        return SELF_NAME;
+    }
+
+    public static String packageName() {
+        return PACKAGE_NAME;
+    }
+
+    public static class Nested {
+        private final RelocPart part;
+
+        Nested(RelocPart part) {
+            this.part = part;
+        }
+
+        int value() {
+            return part.getValue();
+        }
+    }
+}
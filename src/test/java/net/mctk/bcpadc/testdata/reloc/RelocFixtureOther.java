@@ -0,0 +1,11 @@
+package net.mctk.bcpadc.testdata.reloc;
+
+/**
+ * 名前が RelocFixture で始まるだけの別のクラスです(クラス単位の移動では移さない)。
+ */
+public class RelocFixtureOther {
+
+    public static int twice(int value) {
+        return value * 2;
+    }
+}
@@ -0,0 +1,27 @@
+package net.mctk.bcpadc.testdata.reloc;
+
+/**
+ * ClassRelocatorTestで移動するクラスです。
+ */
+public class RelocPart {
+
+    public enum Kind {
+        EVEN, ODD
+    }
+
+    private final int value;
+    private final Kind kind;
+
+    public RelocPart(int value) {
+        this.value = value;
+        this.kind = value % 2 == 0 ? Kind.EVEN : Kind.ODD;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+}
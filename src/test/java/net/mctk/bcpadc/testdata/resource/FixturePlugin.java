@@ -0,0 +1,9 @@
+package net.mctk.bcpadc.testdata.resource;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+/**
+ * JavaPluginのサブクラス。呼び出し先のクラスがこのクラスでも置き換わります。
+ */
+public class FixturePlugin extends JavaPlugin {
+}
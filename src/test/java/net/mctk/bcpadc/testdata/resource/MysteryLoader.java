@@ -0,0 +1,11 @@
+package net.mctk.bcpadc.testdata.resource;
+
+/**
+ * ClassLoaderのサブクラス。テストでは継承関係を分からなくして、置き換えないことを確かめます。
+ */
+public class MysteryLoader extends ClassLoader {
+
+    public MysteryLoader() {
+        super(null);
+    }
+}
@@ -0,0 +1,18 @@
+package net.mctk.bcpadc.testdata.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Pluginと同じ名前とディスクリプタのメソッドを持つだけのクラスです(呼び出しを置き換えない)。
+ */
+public class NotPlugin {
+
+    public InputStream getResource(String filename) {
+        return new ByteArrayInputStream(("own:" + filename).getBytes());
+    }
+
+    public void saveDefaultConfig() {
+        ResourceHelper.CALLS.add("own:saveDefaultConfig");
+    }
+}
@@ -0,0 +1,68 @@
+package net.mctk.bcpadc.testdata.resource;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * ResourceCallRewriterTestで書き換えるクラスです。
+ * 分岐やループの中の呼び出し(StackMapTableのあるメソッド)と、invokeinterface の呼び出しを含みます。
+ */
+public class ResourceCalls {
+
+    public static String plugin(Plugin plugin, int count) throws IOException {
+        StringBuilder read = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            InputStream in = plugin.getResource(i % 2 == 0 ? "config.yml" : "lang.yml");
+            if (in != null) {
+                read.append(read(in)).append(',');
+            } else {
+                read.append("null,");
+            }
+        }
+        plugin.saveResource("data.yml", count > 1);
+        if (count > 0) plugin.saveDefaultConfig();
+        return read.toString();
+    }
+
+    public static String javaPlugin(FixturePlugin plugin) throws IOException {
+        plugin.saveDefaultConfig();
+        return read(plugin.getResource("plugin.yml"));
+    }
+
+    public static String loaders(URLClassLoader loader, ClassLoader parent) throws IOException {
+        String stream = read(loader.getResourceAsStream("a.txt"));
+        URL url = parent.getResource("b.txt");
+        return stream + "|" + (url == null ? null : url.getPath());
+    }
+
+    public static String classes() throws IOException {
+        URL url = ResourceCalls.class.getResource("c.txt");
+        return read(ResourceCalls.class.getResourceAsStream("d.txt")) + "|" + url.getPath();
+    }
+
+    public static String notPlugin(NotPlugin other) throws IOException {
+        other.saveDefaultConfig();
+        return read(other.getResource("n.txt"));
+    }
+
+    public static String mystery(MysteryLoader loader) {
+        URL url = loader.getResource("m.txt");
+        return String.valueOf(url);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        if (in == null) return null;
+        try {
+            StringBuilder read = new StringBuilder();
+            int b;
+            while ((b = in.read()) >= 0) read.append((char) b);
+            return read.toString();
+        } finally {
+            in.close();
+        }
+    }
+}
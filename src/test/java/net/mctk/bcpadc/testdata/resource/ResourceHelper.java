@@ -0,0 +1,64 @@
+package net.mctk.bcpadc.testdata.resource;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ResourceCallRewriterTestで置き換え先にするクラスです(PluginLoaderの EncryptedResources と同じメソッド)。
+ * 呼ばれたメソッドと引数を記録し、どこから呼ばれたか分かる値を返します。
+ */
+public final class ResourceHelper {
+
+    public static final List<String> CALLS = new ArrayList<String>();
+
+    private ResourceHelper() {
+    }
+
+    private static InputStream stream(String call) {
+        CALLS.add(call);
+        return new ByteArrayInputStream(("helper:" + call).getBytes());
+    }
+
+    private static URL url(String call) {
+        CALLS.add(call);
+        try {
+            return new URL("file:/helper/" + call);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static InputStream pluginResource(Plugin plugin, String filename) {
+        return stream("pluginResource:" + filename);
+    }
+
+    public static void saveResource(Plugin plugin, String path, boolean replace) {
+        CALLS.add("saveResource:" + path + ":" + replace);
+    }
+
+    public static void saveDefaultConfig(Plugin plugin) {
+        CALLS.add("saveDefaultConfig");
+    }
+
+    public static InputStream classResourceAsStream(Class<?> type, String name) {
+        return stream("classResourceAsStream:" + name);
+    }
+
+    public static URL classResource(Class<?> type, String name) {
+        return url("classResource:" + name);
+    }
+
+    public static InputStream loaderResourceAsStream(ClassLoader loader, String name) {
+        return stream("loaderResourceAsStream:" + name);
+    }
+
+    public static URL loaderResource(ClassLoader loader, String name) {
+        return url("loaderResource:" + name);
+    }
+}